@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the throughput of {@link WeatherProvider#bulkInsertWeather(SQLiteDatabase,
+ * ContentValues[])}, which binds every row to a single compiled INSERT statement, with calling
+ * SQLiteDatabase#insert for every row, which is what bulkInsert used to do.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testBothInsertPathsInsertEveryRow() {
+        ContentValues[] values = createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, 14);
+
+        assertEquals(values.length, WeatherProvider.bulkInsertWeather(mDatabase, values));
+        assertEquals(values.length, countRows());
+
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        assertEquals(values.length, insertOneByOne(mDatabase, values));
+        assertEquals(values.length, countRows());
+    }
+
+    @Test
+    public void testMissingValueIsSkipped() {
+        ContentValues[] values = createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, 3);
+        values[1].remove(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+
+        assertEquals("A row without humidity shouldn't be inserted",
+                2, WeatherProvider.bulkInsertWeather(mDatabase, values));
+        assertEquals(2, countRows());
+    }
+
+    @Test
+    public void testCompareInsert14Rows() throws Exception {
+        compareInserts(14, 50);
+    }
+
+    @Test
+    public void testCompareInsert1000Rows() throws Exception {
+        compareInserts(1000, 10);
+    }
+
+    @Test
+    public void testCompareInsert100000Rows() throws Exception {
+        compareInserts(100000, 1);
+    }
+
+    /**
+     * Both paths insert into the same table, so every run after the first replaces the rows the
+     * previous run inserted, just as every sync replaces most of the forecast.
+     */
+    private void compareInserts(int rows, int runs) throws Exception {
+        final ContentValues[] values =
+                createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, rows);
+
+        Benchmark.Result insert = Benchmark.measure("SQLiteDatabase#insert, " + rows + " rows",
+                runs, new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        insertOneByOne(mDatabase, values);
+                    }
+                });
+
+        Benchmark.Result compiled = Benchmark.measure("Compiled statement, " + rows + " rows",
+                runs, new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        WeatherProvider.bulkInsertWeather(mDatabase, values);
+                    }
+                });
+
+        Benchmark.compare(insert, compiled);
+        assertEquals(rows, countRows());
+    }
+
+    /**
+     * This is how WeatherProvider#bulkInsert used to insert rows, kept here as the baseline.
+     */
+    private static int insertOneByOne(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDatabase, WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+}
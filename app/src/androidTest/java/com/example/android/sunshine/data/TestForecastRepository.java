@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link ForecastRepository} holds exactly the forecast that is in the
+ * ContentProvider, loads it again whenever the weather in the ContentProvider changes, and tells
+ * its listeners when it does.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastRepository {
+
+    private static final int DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final long mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    @Before
+    public void setUp() {
+        deleteAllWeather();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllWeather();
+        ForecastRepository.getInstance(mContext).refresh();
+    }
+
+    @Test
+    public void testSnapshotMatchesProvider() {
+        ContentValues[] values = createForecastTestWeatherValues(mToday, DAYS);
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+
+        ForecastRepository.Snapshot forecast = ForecastRepository.getInstance(mContext).refresh();
+
+        assertEquals("The snapshot has the wrong number of days", DAYS, forecast.size());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues day = values[i];
+            assertEquals(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE).longValue(),
+                    forecast.getDate(i));
+            assertEquals(
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    forecast.getWeatherId(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    forecast.getMinTemp(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    forecast.getMaxTemp(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                    forecast.getHumidity(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    forecast.getPressure(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                    forecast.getWindSpeed(i));
+            assertEquals(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES),
+                    forecast.getDegrees(i));
+        }
+    }
+
+    @Test
+    public void testSnapshotStartsFromToday() {
+        long yesterday = mToday - SunshineDateUtils.DAY_IN_MILLIS;
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createForecastTestWeatherValues(yesterday, DAYS));
+
+        ForecastRepository.Snapshot forecast = ForecastRepository.getInstance(mContext).refresh();
+
+        assertEquals(DAYS - 1, forecast.size());
+        assertEquals(0, forecast.indexOfDate(mToday));
+        assertEquals(-1, forecast.indexOfDate(yesterday));
+        assertEquals(0, forecast.indexOfFirstDayFrom(yesterday));
+        assertEquals(-1, forecast.indexOfFirstDayFrom(
+                mToday + DAYS * SunshineDateUtils.DAY_IN_MILLIS));
+    }
+
+    @Test
+    public void testEmptyProviderGivesEmptySnapshot() {
+        ForecastRepository.Snapshot forecast = ForecastRepository.getInstance(mContext).refresh();
+
+        assertTrue(forecast.isEmpty());
+        assertEquals(-1, forecast.indexOfFirstDayFrom(mToday));
+    }
+
+    /**
+     * Every write through the ContentProvider, not just the sync's, should load a new snapshot,
+     * so the next read sees the new weather without anyone calling refresh.
+     */
+    @Test
+    public void testWritesLoadNewSnapshot() throws Exception {
+        final ForecastRepository repository = ForecastRepository.getInstance(mContext);
+        assertTrue(repository.refresh().isEmpty());
+
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createForecastTestWeatherValues(mToday, DAYS));
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return repository.getForecast().size() == DAYS;
+            }
+        }.run();
+
+        final int newWeatherId = 200;
+        ContentValues update = new ContentValues();
+        update.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, newWeatherId);
+        assertEquals(1, mContext.getContentResolver().update(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(mToday), update, null, null));
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return repository.getForecast().getWeatherId(0) == newWeatherId;
+            }
+        }.run();
+
+        deleteAllWeather();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return repository.getForecast().isEmpty();
+            }
+        }.run();
+    }
+
+    @Test
+    public void testListenersAreNotifiedOnMainThread() throws Exception {
+        final CountDownLatch notified = new CountDownLatch(1);
+        final ForecastRepository.Snapshot[] received = new ForecastRepository.Snapshot[1];
+        final boolean[] onMainThread = new boolean[1];
+
+        ForecastRepository.OnForecastChangedListener listener =
+                new ForecastRepository.OnForecastChangedListener() {
+                    @Override
+                    public void onForecastChanged(ForecastRepository.Snapshot forecast) {
+                        /* setUp's delete may still be reporting its own, empty forecast */
+                        if (forecast.size() != DAYS) return;
+                        received[0] = forecast;
+                        onMainThread[0] = Looper.myLooper() == Looper.getMainLooper();
+                        notified.countDown();
+                    }
+                };
+
+        ForecastRepository repository = ForecastRepository.getInstance(mContext);
+        repository.getForecast();
+        repository.addOnForecastChangedListener(listener);
+        try {
+            /* Nobody calls refresh: the write alone should bring the new forecast */
+            mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                    createForecastTestWeatherValues(mToday, DAYS));
+
+            assertTrue("The listener wasn't notified", notified.await(5, TimeUnit.SECONDS));
+            assertSame(repository.getForecast(), received[0]);
+            assertTrue("The listener wasn't called on the main thread", onMainThread[0]);
+        } finally {
+            repository.removeOnForecastChangedListener(listener);
+        }
+    }
+
+    /**
+     * The sync refreshes the repository straight after merging, and the merge's change arrives
+     * after that. The snapshot the refresh loaded already has that change, so it must be kept.
+     */
+    @Test
+    public void testRefreshIsKeptWhenItsOwnChangeArrives() throws Exception {
+        final CountDownLatch changed = new CountDownLatch(1);
+        HandlerThread thread = new HandlerThread("TestForecastRepository");
+        thread.start();
+        ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed.countDown();
+            }
+        };
+
+        ForecastRepository repository = ForecastRepository.getInstance(mContext);
+        repository.getForecast();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+        try {
+            mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                    createForecastTestWeatherValues(mToday, DAYS));
+            ForecastRepository.Snapshot forecast = repository.refresh();
+            int loads = repository.getLoadCount();
+
+            /* Give the repository's own observer the same chance to run as ours */
+            assertTrue("The change wasn't reported", changed.await(5, TimeUnit.SECONDS));
+            Thread.sleep(500);
+
+            assertSame("The refreshed forecast was thrown away", forecast,
+                    repository.getForecast());
+            assertEquals("The forecast was loaded again", loads, repository.getLoadCount());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            thread.quit();
+        }
+    }
+
+    private void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Asks SQLite how it plans to run each of the queries Sunshine makes often, using EXPLAIN QUERY
+ * PLAN, and fails if any of them would read through the whole weather table. The main list and
+ * {@link ForecastRepository}'s snapshot must also be read straight from
+ * {@link WeatherDbHelper#INDEX_UPCOMING}, without sorting.
+ * <p>
+ * The queries are then timed against 10^5 rows, with and without the covering index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestQueryPlans {
+
+    private static final int LARGE_TABLE_ROWS = 100000;
+
+    /* How many days the main list shows at the end of the large table */
+    private static final int UPCOMING_DAYS = 14;
+
+    private static final String TABLE_NAME = WeatherContract.WeatherEntry.TABLE_NAME;
+    private static final String COLUMN_DATE = WeatherContract.WeatherEntry.COLUMN_DATE;
+
+    private static final String SELECT_TODAY_ONWARDS =
+            WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+    private static final String SELECT_DAY = COLUMN_DATE + " = ?";
+    private static final String SORT_BY_DATE = COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.delete(TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.execSQL(WeatherDbHelper.SQL_CREATE_UPCOMING_INDEX);
+        mDatabase.delete(TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testMainListIsReadFromCoveringIndex() {
+        List<String> plan = explain(buildQuery(MainActivity.MAIN_FORECAST_PROJECTION,
+                SELECT_TODAY_ONWARDS, SORT_BY_DATE));
+
+        assertTrue("The main list should only read " + WeatherDbHelper.INDEX_UPCOMING
+                + ", but the plan was " + plan, usesCoveringIndex(plan));
+        assertFalse("The main list shouldn't need sorting, but the plan was " + plan,
+                plan.toString().contains("TEMP B-TREE"));
+    }
+
+    /**
+     * The snapshot that the notification, the watch and the sync read from is loaded with
+     * every column but _ID, all of which the covering index holds.
+     */
+    @Test
+    public void testSnapshotIsReadFromCoveringIndex() {
+        List<String> plan = explain(buildQuery(ForecastRepository.SNAPSHOT_PROJECTION,
+                SELECT_TODAY_ONWARDS, SORT_BY_DATE));
+
+        assertTrue("The snapshot should only read " + WeatherDbHelper.INDEX_UPCOMING
+                + ", but the plan was " + plan, usesCoveringIndex(plan));
+        assertFalse("The snapshot shouldn't need sorting, but the plan was " + plan,
+                plan.toString().contains("TEMP B-TREE"));
+    }
+
+    /**
+     * The detail screen reads a single day. The covering index holds every column it needs, but
+     * SQLite is free to use the unique index on the date instead, as there's only one row to
+     * look up either way. Either way, it must look the day up rather than read through a table.
+     */
+    @Test
+    public void testDetailIsLookedUpByDate() {
+        List<String> plan = explain(buildQuery(DetailActivity.WEATHER_DETAIL_PROJECTION,
+                SELECT_DAY, null));
+
+        assertNoFullTableScan("DetailActivity's loader", plan);
+        assertTrue("The detail should be looked up by date, but the plan was " + plan,
+                plan.toString().contains(COLUMN_DATE + "=?"));
+    }
+
+    @Test
+    public void testHotQueriesDontScanTable() {
+        assertNoFullTableScan("MainActivity's loader", explain(buildQuery(
+                MainActivity.MAIN_FORECAST_PROJECTION, SELECT_TODAY_ONWARDS, SORT_BY_DATE)));
+
+        assertNoFullTableScan("DetailActivity's loader", explain(buildQuery(
+                DetailActivity.WEATHER_DETAIL_PROJECTION, SELECT_DAY, null)));
+
+        assertNoFullTableScan("ForecastRepository's snapshot", explain(buildQuery(
+                ForecastRepository.SNAPSHOT_PROJECTION, SELECT_TODAY_ONWARDS, SORT_BY_DATE)));
+
+        assertNoFullTableScan("SunshineSyncUtils' check for data", explain(buildQuery(
+                new String[]{WeatherContract.WeatherEntry._ID}, SELECT_TODAY_ONWARDS, null)));
+
+        assertNoFullTableScan("Deleting the days in the past", explain(
+                "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_DATE + " < ?"));
+    }
+
+    @Test
+    public void testCompareMainListOnLargeTable() throws Exception {
+        long firstDate = fillLargeTable();
+        String today = Long.toString(
+                firstDate + (LARGE_TABLE_ROWS - UPCOMING_DAYS) * SunshineDateUtils.DAY_IN_MILLIS);
+
+        compareWithAndWithoutIndex("Main list, " + UPCOMING_DAYS + " of " + LARGE_TABLE_ROWS
+                        + " rows",
+                200, MainActivity.MAIN_FORECAST_PROJECTION, SELECT_TODAY_ONWARDS, today,
+                SORT_BY_DATE, UPCOMING_DAYS);
+    }
+
+    @Test
+    public void testCompareLongForecastOnLargeTable() throws Exception {
+        long firstDate = fillLargeTable();
+        String middle = Long.toString(
+                firstDate + (LARGE_TABLE_ROWS / 2) * SunshineDateUtils.DAY_IN_MILLIS);
+
+        compareWithAndWithoutIndex("Main list, " + LARGE_TABLE_ROWS / 2 + " of "
+                        + LARGE_TABLE_ROWS + " rows",
+                5, MainActivity.MAIN_FORECAST_PROJECTION, SELECT_TODAY_ONWARDS, middle,
+                SORT_BY_DATE, LARGE_TABLE_ROWS / 2);
+    }
+
+    @Test
+    public void testCompareSnapshotOnLargeTable() throws Exception {
+        long firstDate = fillLargeTable();
+        String today = Long.toString(
+                firstDate + (LARGE_TABLE_ROWS - UPCOMING_DAYS) * SunshineDateUtils.DAY_IN_MILLIS);
+
+        compareWithAndWithoutIndex("Snapshot, " + UPCOMING_DAYS + " of " + LARGE_TABLE_ROWS
+                        + " rows",
+                200, ForecastRepository.SNAPSHOT_PROJECTION, SELECT_TODAY_ONWARDS, today,
+                SORT_BY_DATE, UPCOMING_DAYS);
+    }
+
+    @Test
+    public void testCompareDetailOnLargeTable() throws Exception {
+        long firstDate = fillLargeTable();
+        String day = Long.toString(
+                firstDate + (LARGE_TABLE_ROWS / 2) * SunshineDateUtils.DAY_IN_MILLIS);
+
+        compareWithAndWithoutIndex("Detail, 1 of " + LARGE_TABLE_ROWS + " rows",
+                1000, DetailActivity.WEATHER_DETAIL_PROJECTION, SELECT_DAY, day, null, 1);
+    }
+
+    /**
+     * Times a query that reads every row it returns, first with only the index SQLite creates
+     * for UNIQUE(date), then with INDEX_UPCOMING as well.
+     */
+    private void compareWithAndWithoutIndex(String label, int runs, String[] projection,
+                                            String selection, String argument, String sortOrder,
+                                            int expectedRows) throws Exception {
+        final String sql = buildQuery(projection, selection, sortOrder);
+        final String[] selectionArgs = {argument};
+
+        Benchmark.Block query = new Benchmark.Block() {
+            @Override
+            public void run() {
+                readAllRows(sql, selectionArgs);
+            }
+        };
+
+        mDatabase.execSQL("DROP INDEX IF EXISTS " + WeatherDbHelper.INDEX_UPCOMING);
+        assertEquals(expectedRows, readAllRows(sql, selectionArgs));
+        Benchmark.Result withoutIndex = Benchmark.measure(label + ", date index", runs, query);
+
+        mDatabase.execSQL(WeatherDbHelper.SQL_CREATE_UPCOMING_INDEX);
+        assertEquals(expectedRows, readAllRows(sql, selectionArgs));
+        Benchmark.Result withIndex = Benchmark.measure(label + ", covering index", runs, query);
+
+        Benchmark.compare(withoutIndex, withIndex);
+    }
+
+    /* Fills the table with LARGE_TABLE_ROWS consecutive days and returns the first of them */
+    private long fillLargeTable() {
+        long firstDate = TestUtilities.DATE_NORMALIZED;
+        assertEquals(LARGE_TABLE_ROWS, WeatherProvider.bulkInsertWeather(mDatabase,
+                createForecastTestWeatherValues(firstDate, LARGE_TABLE_ROWS)));
+        return firstDate;
+    }
+
+    private int readAllRows(String sql, String[] selectionArgs) {
+        Cursor cursor = mDatabase.rawQuery(sql, selectionArgs);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* Builds the same SQL that SQLiteDatabase#query builds for the provider */
+    private static String buildQuery(String[] projection, String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, TABLE_NAME, projection, selection,
+                null, null, sortOrder, null);
+    }
+
+    /**
+     * Returns the detail of each step of SQLite's plan for the statement. The "?"s are left
+     * unbound, which doesn't change the plan.
+     */
+    private List<String> explain(String sql) {
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            List<String> plan = new ArrayList<>();
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+            return plan;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean usesCoveringIndex(List<String> plan) {
+        for (String step : plan) {
+            if (step.contains("COVERING INDEX " + WeatherDbHelper.INDEX_UPCOMING)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A step that reads through the whole table is reported as "SCAN TABLE weather", or as
+     * "SCAN weather" by newer versions of SQLite, with no index. Reading through a whole index
+     * is reported with the index's name.
+     */
+    private static void assertNoFullTableScan(String query, List<String> plan) {
+        if (plan.isEmpty()) {
+            fail(query + " has no plan");
+        }
+        for (String step : plan) {
+            if (step.startsWith("SCAN") && !step.contains("INDEX")) {
+                fail(query + " reads the whole table: " + plan);
+            }
+        }
+    }
+}
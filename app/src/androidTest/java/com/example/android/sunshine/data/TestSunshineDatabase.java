@@ -18,11 +18,13 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -32,8 +34,10 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
 import static com.example.android.sunshine.data.TestUtilities.getConstantNameByStringValue;
 import static com.example.android.sunshine.data.TestUtilities.getStaticIntegerField;
 import static com.example.android.sunshine.data.TestUtilities.getStaticStringField;
@@ -56,11 +60,44 @@ import static junit.framework.Assert.fail;
  * with the same date will overwrite that record.
  * 4) Verify that NON NULL constraints are working properly on record inserts
  * 5) Verify auto increment is working with the ID
- * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 6) Test the onUpgrade functionality of the WeatherDbHelper, including migrating a large table
+ * across several versions
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
 
+    private static final String TAG = TestSunshineDatabase.class.getSimpleName();
+
+    /* The number of rows the upgrade tests migrate, far more than a real forecast ever has */
+    private static final int LARGE_TABLE_ROWS = 100000;
+
+    /*
+     * How long upgrading LARGE_TABLE_ROWS rows may take. The upgrade runs the first time the
+     * database is opened after the app is updated, and whoever opened it has to wait for it.
+     */
+    private static final long MAX_UPGRADE_MILLIS = 10000;
+
+    /*
+     * The weather table as it was in version 3, before the covering index. Migrations have to
+     * spell out their own SQL like this, as onCreate changes along with the schema.
+     */
+    private static final String VERSION_3_CREATE_TABLE =
+            "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "date INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, " +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            "UNIQUE (date) ON CONFLICT REPLACE);";
+
+    private static final String[] WEATHER_COLUMNS = {
+            "_id", "date", "weather_id", "min", "max", "humidity", "pressure", "wind", "degrees"
+    };
+
     /*
      * Context used to perform operations on the database and create WeatherDbHelpers.
      */
@@ -193,7 +230,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -382,9 +419,10 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. There
+     * is no way to migrate from version 13 to 14, so the proper behavior for this method in this
+     * case is to simply DROP (or delete) the weather table from the database and then have the
+     * table recreated. Upgrades that can be migrated are tested further down.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -436,6 +474,199 @@ public class TestSunshineDatabase {
         database.close();
     }
 
+    /**
+     * Upgrading from version 3, which didn't have the covering index yet, should add the index
+     * and keep every day of the forecast the device already has.
+     */
+    @Test
+    public void testOnUpgradeFromVersion3KeepsForecast() {
+        createVersion3Table();
+        ContentValues[] forecast =
+                createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, LARGE_TABLE_ROWS);
+        WeatherProvider.bulkInsertWeather(database, forecast);
+
+        long upgradeMillis = upgrade(new Runnable() {
+            @Override
+            public void run() {
+                dbHelper.onUpgrade(database, 3, REFLECTED_DATABASE_VERSION);
+            }
+        });
+        Log.i(TAG, "Upgraded " + LARGE_TABLE_ROWS + " rows from version 3 to "
+                + REFLECTED_DATABASE_VERSION + " in " + upgradeMillis + "ms");
+
+        assertTrue("Upgrading took " + upgradeMillis + "ms",
+                upgradeMillis < MAX_UPGRADE_MILLIS);
+        assertEquals("The upgrade should keep every row",
+                LARGE_TABLE_ROWS, DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+        assertTrue("The upgrade should add " + WeatherDbHelper.INDEX_UPCOMING,
+                indexExists(WeatherDbHelper.INDEX_UPCOMING));
+        assertRowKept(forecast[LARGE_TABLE_ROWS / 2]);
+    }
+
+    /**
+     * Version 4's index only held the columns the main list reads. Upgrading should replace it
+     * with one that holds every column ForecastRepository's snapshot reads, keeping the forecast.
+     */
+    @Test
+    public void testOnUpgradeFromVersion4WidensIndex() {
+        createVersion3Table();
+        database.execSQL("CREATE INDEX " + WeatherDbHelper.INDEX_UPCOMING + " ON "
+                + REFLECTED_TABLE_NAME + " (date, weather_id, max, min);");
+        ContentValues[] forecast =
+                createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, LARGE_TABLE_ROWS);
+        WeatherProvider.bulkInsertWeather(database, forecast);
+
+        upgrade(new Runnable() {
+            @Override
+            public void run() {
+                dbHelper.onUpgrade(database, 4, REFLECTED_DATABASE_VERSION);
+            }
+        });
+
+        Set<String> indexColumns = new HashSet<>();
+        Cursor cursor = database.rawQuery(
+                "PRAGMA index_info(" + WeatherDbHelper.INDEX_UPCOMING + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                indexColumns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String column : ForecastRepository.SNAPSHOT_PROJECTION) {
+            assertTrue("The index should hold " + column, indexColumns.contains(column));
+        }
+        assertEquals("The upgrade should keep every row",
+                LARGE_TABLE_ROWS, DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+        assertRowKept(forecast[LARGE_TABLE_ROWS / 2]);
+    }
+
+    /**
+     * Runs a made up series of steps over a large table, like a device that skipped several
+     * updates of the app: adding the index, adding a column with ALTER TABLE, and then
+     * rebuilding the table without that column again, which ALTER TABLE can't do.
+     */
+    @Test
+    public void testMultiVersionUpgradeOnLargeTable() {
+        createVersion3Table();
+        ContentValues[] forecast =
+                createForecastTestWeatherValues(TestUtilities.DATE_NORMALIZED, LARGE_TABLE_ROWS);
+        WeatherProvider.bulkInsertWeather(database, forecast);
+
+        final String sunriseColumn = "sunrise";
+        final WeatherDbHelper.Migration[] migrations = {
+                new WeatherDbHelper.Migration(4) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL(WeatherDbHelper.SQL_CREATE_UPCOMING_INDEX);
+                    }
+                },
+                new WeatherDbHelper.Migration(5) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL("ALTER TABLE " + REFLECTED_TABLE_NAME + " ADD COLUMN "
+                                + sunriseColumn + " INTEGER NOT NULL DEFAULT 0");
+                    }
+                },
+                new WeatherDbHelper.Migration(6) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        WeatherDbHelper.rebuildTable(db, REFLECTED_TABLE_NAME,
+                                VERSION_3_CREATE_TABLE, WEATHER_COLUMNS);
+                        db.execSQL(WeatherDbHelper.SQL_CREATE_UPCOMING_INDEX);
+                    }
+                },
+        };
+
+        final boolean[] migrated = new boolean[1];
+        long upgradeMillis = upgrade(new Runnable() {
+            @Override
+            public void run() {
+                migrated[0] = WeatherDbHelper.migrate(database, 3, 6, migrations);
+            }
+        });
+        Log.i(TAG, "Upgraded " + LARGE_TABLE_ROWS + " rows from version 3 to 6 in "
+                + upgradeMillis + "ms");
+
+        assertTrue("Every step from 3 to 6 is there, so the migration should succeed",
+                migrated[0]);
+        assertTrue("Upgrading took " + upgradeMillis + "ms",
+                upgradeMillis < MAX_UPGRADE_MILLIS);
+        assertEquals("The upgrade should keep every row",
+                LARGE_TABLE_ROWS, DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+        assertTrue("The index should be created again after the table is rebuilt",
+                indexExists(WeatherDbHelper.INDEX_UPCOMING));
+        assertRowKept(forecast[0]);
+        assertRowKept(forecast[LARGE_TABLE_ROWS - 1]);
+
+        Cursor cursor = database.query(REFLECTED_TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("The rebuilt table shouldn't have the column that was added",
+                -1, cursor.getColumnIndex(sunriseColumn));
+        cursor.close();
+
+        /* The new table should still replace a day that's inserted again */
+        assertEquals(1, WeatherProvider.bulkInsertWeather(database,
+                new ContentValues[]{forecast[0]}));
+        assertEquals(LARGE_TABLE_ROWS,
+                DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+    }
+
+    /**
+     * A step that's missing means there's no way to migrate, so the migration should give up
+     * and leave it to onUpgrade to create the database again.
+     */
+    @Test
+    public void testMigrateFailsWithMissingStep() {
+        WeatherDbHelper.Migration[] migrations = {
+                new WeatherDbHelper.Migration(5) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        fail("A step after a missing one shouldn't run");
+                    }
+                },
+        };
+
+        assertFalse(WeatherDbHelper.migrate(database, 3, 5, migrations));
+    }
+
+    /* Puts the database back to version 3, which is version 4 without the covering index */
+    private void createVersion3Table() {
+        database.execSQL("DROP TABLE IF EXISTS " + REFLECTED_TABLE_NAME);
+        database.execSQL(VERSION_3_CREATE_TABLE);
+        assertFalse(indexExists(WeatherDbHelper.INDEX_UPCOMING));
+    }
+
+    /* Runs an upgrade in a transaction, as SQLiteOpenHelper does, and returns how long it took */
+    private long upgrade(Runnable upgrade) {
+        long start = System.nanoTime();
+        database.beginTransaction();
+        try {
+            upgrade.run();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private boolean indexExists(String indexName) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName}) == 1;
+    }
+
+    private void assertRowKept(ContentValues expected) {
+        Cursor cursor = database.query(REFLECTED_TABLE_NAME, null,
+                REFLECTED_COLUMN_DATE + " = ?",
+                new String[]{expected.getAsString(REFLECTED_COLUMN_DATE)},
+                null, null, null);
+        assertTrue("The day should have been kept", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("The day's weather should have been kept",
+                cursor, expected);
+        cursor.close();
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
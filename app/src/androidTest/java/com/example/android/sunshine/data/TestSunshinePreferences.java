@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SunshinePreferences} sees every change to the preferences, whether it was
+ * made through SunshinePreferences or straight to SharedPreferences, such as by the settings
+ * screen.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshinePreferences {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final SharedPreferences mPreferences =
+            PreferenceManager.getDefaultSharedPreferences(mContext);
+
+    @Before
+    public void setUp() {
+        mPreferences.edit().clear().commit();
+        SunshinePreferences.resetLocationCoordinates(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mPreferences.edit().clear().commit();
+        SunshinePreferences.resetLocationCoordinates(mContext);
+    }
+
+    @Test
+    public void testUnitsChangeIsSeen() throws Exception {
+        assertTrue("Metric is the default", SunshinePreferences.isMetric(mContext));
+
+        /* This is how the settings screen changes it, without going through SunshinePreferences */
+        mPreferences.edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_imperial))
+                .commit();
+
+        /* The listener is called on the main thread, so it may take a moment */
+        PollingCheck.check("The change to imperial was never seen", 3000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return !SunshinePreferences.isMetric(mContext);
+                    }
+                });
+    }
+
+    @Test
+    public void testLocationDetailsAreSeenStraightAway() {
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mContext));
+
+        SunshinePreferences.setLocationDetails(mContext, 37.4, -122.1);
+
+        assertTrue(SunshinePreferences.isLocationLatLonAvailable(mContext));
+        double[] coordinates = SunshinePreferences.getLocationCoordinates(mContext);
+        assertEquals(37.4, coordinates[0]);
+        assertEquals(-122.1, coordinates[1]);
+
+        SunshinePreferences.resetLocationCoordinates(mContext);
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mContext));
+    }
+
+    @Test
+    public void testUnchangedLocationIsNotWritten() {
+        SunshinePreferences.setLocationDetails(mContext, 51.5, -0.1);
+
+        final int[] changes = new int[1];
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                        changes[0]++;
+                    }
+                };
+        mPreferences.registerOnSharedPreferenceChangeListener(listener);
+        try {
+            SunshinePreferences.setLocationDetails(mContext, 51.5, -0.1);
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+            assertEquals("Setting the same location again shouldn't write anything",
+                    0, changes[0]);
+        } finally {
+            mPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+}
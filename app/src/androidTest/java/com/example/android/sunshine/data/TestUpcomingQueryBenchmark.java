@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks the weather from today onwards comes back from
+ * {@link WeatherContract.WeatherEntry#CONTENT_UPCOMING_URI}, and compares querying it, with today
+ * bound as an argument, against the old selection that had today written into its SQL. The
+ * queries are made the way MainActivity's CursorLoader makes them, through the ContentResolver
+ * with MAIN_FORECAST_PROJECTION.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestUpcomingQueryBenchmark {
+
+    /* Some days in the past, which should never be returned, followed by the forecast */
+    private static final int PAST_DAYS = 7;
+    private static final int FORECAST_DAYS = 14;
+
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues[] values = createForecastTestWeatherValues(
+                mToday - PAST_DAYS * SunshineDateUtils.DAY_IN_MILLIS, PAST_DAYS + FORECAST_DAYS);
+        WeatherProvider.bulkInsertWeather(mDatabase, values);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testUpcomingStartsToday() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                null,
+                null,
+                null);
+        try {
+            assertEquals("Only today onwards should be returned",
+                    FORECAST_DAYS, cursor.getCount());
+
+            int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            long expectedDate = mToday;
+            while (cursor.moveToNext()) {
+                assertEquals("The days should be in date order, starting today",
+                        expectedDate, cursor.getLong(dateIndex));
+                expectedDate += SunshineDateUtils.DAY_IN_MILLIS;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUpcomingAppliesSelection() {
+        long tomorrow = mToday + SunshineDateUtils.DAY_IN_MILLIS;
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(tomorrow)},
+                null);
+        try {
+            assertEquals("Only today and tomorrow should be returned", 2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testBoundSelectionMatchesLiteralSelection() {
+        int literal = countRows(WeatherContract.WeatherEntry.CONTENT_URI,
+                literalSelectionForTodayOnwards(mToday), null);
+        int bound = countRows(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherContract.WeatherEntry.getSqlSelectArgsForTodayOnwards());
+        int upcoming = countRows(WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI, null, null);
+
+        assertEquals(FORECAST_DAYS, literal);
+        assertEquals(literal, bound);
+        assertEquals(literal, upcoming);
+    }
+
+    /**
+     * The loader runs the same query each time the forecast changes or MainActivity is shown.
+     * Within one day the old selection's SQL didn't change either, so this is the best case for
+     * it.
+     */
+    @Test
+    public void testCompareRepeatedLoaderQueries() throws Exception {
+        Benchmark.Result literal = Benchmark.measure("Date in the SQL", 200,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        long today =
+                                SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+                        countRows(WeatherContract.WeatherEntry.CONTENT_URI,
+                                literalSelectionForTodayOnwards(today), null);
+                    }
+                });
+
+        Benchmark.Result upcoming = Benchmark.measure("Upcoming URI", 200,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        countRows(WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI, null, null);
+                    }
+                });
+
+        Benchmark.compare(literal, upcoming);
+    }
+
+    /**
+     * Every different date written into the SQL is a different statement, which has to be
+     * compiled before it can run. Asking for a different day each time shows what that costs,
+     * as happens every time the date changes, or the cached statement is pushed out by others.
+     */
+    @Test
+    public void testCompareQueriesForChangingDates() throws Exception {
+        final int runs = 200;
+        final long[] day = new long[1];
+
+        day[0] = 0;
+        Benchmark.Result literal = Benchmark.measure("New date in the SQL every query", runs,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        long date = mToday - (day[0]++ % 1000) * SunshineDateUtils.DAY_IN_MILLIS;
+                        countRows(WeatherContract.WeatherEntry.CONTENT_URI,
+                                literalSelectionForTodayOnwards(date), null);
+                    }
+                });
+
+        day[0] = 0;
+        Benchmark.Result bound = Benchmark.measure("New date bound every query", runs,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        long date = mToday - (day[0]++ % 1000) * SunshineDateUtils.DAY_IN_MILLIS;
+                        countRows(WeatherContract.WeatherEntry.CONTENT_URI,
+                                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                                new String[]{Long.toString(date)});
+                    }
+                });
+
+        Benchmark.compare(literal, bound);
+        assertTrue(countRows(WeatherContract.WeatherEntry.CONTENT_URI, null, null) > 0);
+    }
+
+    /**
+     * This is how WeatherEntry#getSqlSelectForTodayOnwards used to build its selection, kept
+     * here as the baseline.
+     */
+    private static String literalSelectionForTodayOnwards(long normalizedDate) {
+        return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedDate;
+    }
+
+    /* Queries like the loader does, and reads every row so the query actually runs */
+    private int countRows(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = mContentResolver.query(uri, MainActivity.MAIN_FORECAST_PROJECTION,
+                selection, selectionArgs, SORT_ORDER);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
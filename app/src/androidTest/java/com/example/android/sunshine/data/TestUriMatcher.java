@@ -37,6 +37,9 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_SYNC_DIR = WeatherContract.WeatherEntry.CONTENT_SYNC_URI;
+    private static final Uri TEST_WEATHER_UPCOMING_DIR =
+            WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI;
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -101,5 +104,19 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test that the sync URI isn't mistaken for the weather on a particular date */
+        String weatherSyncUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_SYNC URI was matched incorrectly.";
+        assertEquals(weatherSyncUriCodeDoesNotMatch,
+                WeatherProvider.CODE_WEATHER_SYNC,
+                testMatcher.match(TEST_WEATHER_SYNC_DIR));
+
+        /* Test that the upcoming URI isn't mistaken for the weather on a particular date either */
+        String weatherUpcomingUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_UPCOMING URI was matched incorrectly.";
+        assertEquals(weatherUpcomingUriCodeDoesNotMatch,
+                WeatherProvider.CODE_WEATHER_UPCOMING,
+                testMatcher.match(TEST_WEATHER_UPCOMING_DIR));
     }
 }
@@ -173,6 +173,36 @@ class TestUtilities {
     }
 
 
+    /**
+     * Creates a forecast of consecutive days, like the ones SunshineSyncTask merges into the
+     * ContentProvider.
+     *
+     * @param firstDate Normalized date of the first day
+     * @param days      Number of days in the forecast
+     * @return Array of ContentValues, one for each day
+     */
+    static ContentValues[] createForecastTestWeatherValues(long firstDate, int days) {
+        ContentValues[] forecast = new ContentValues[days];
+
+        for (int i = 0; i < days; i++) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(COLUMN_DATE, firstDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+            /* Every value is exact in binary, so it reads back as exactly the same String */
+            weatherValues.put(COLUMN_DEGREES, 22.5 * i);
+            weatherValues.put(COLUMN_HUMIDITY, 60.0 + i);
+            weatherValues.put(COLUMN_PRESSURE, 1013.25 - i);
+            weatherValues.put(COLUMN_MAX_TEMP, 20.5 + i);
+            weatherValues.put(COLUMN_MIN_TEMP, 10.25 - i);
+            weatherValues.put(COLUMN_WIND_SPEED, 5.5 + 0.25 * i);
+            weatherValues.put(COLUMN_WEATHER_ID, 800 + i % 5);
+
+            forecast[i] = weatherValues;
+        }
+
+        return forecast;
+    }
+
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
@@ -188,6 +218,7 @@ class TestUtilities {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -222,6 +253,7 @@ class TestUtilities {
          */
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount++;
             mContentChanged = true;
         }
 
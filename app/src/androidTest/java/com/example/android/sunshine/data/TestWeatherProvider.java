@@ -27,12 +27,16 @@ import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
@@ -57,6 +61,9 @@ import static junit.framework.Assert.fail;
  *   4) A test to determine if you've implemented the delete functionality of your
  *    ContentProvider properly.
  * <p>
+ *   5) Tests of the update functionality of the ContentProvider, and of merging a fresh
+ *    forecast into the weather we already have.
+ * <p>
  * If any of these tests fail, you should see useful error messages in the testing console's
  * output window.
  * <p>
@@ -423,6 +430,206 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * This test updates the weather for a single day using its date URI, and checks that only
+     * that day changed.
+     */
+    @Test
+    public void testUpdateWeatherWithDate() {
+        testBulkInsert();
+
+        ContentValues[] insertedValues = createBulkInsertTestWeatherValues();
+        long date = insertedValues[3].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        ContentValues updatedValues = new ContentValues(insertedValues[3]);
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        updatedValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+
+        /* The main list watches CONTENT_UPCOMING_URI alone, and must hear about the change */
+        TestUtilities.TestContentObserver upcomingObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI, false, upcomingObserver);
+
+        int updateCount = mContext.getContentResolver().update(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(date),
+                updatedValues,
+                null,
+                null);
+        assertEquals("Exactly one day should have been updated", 1, updateCount);
+
+        upcomingObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(upcomingObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testUpdateWeatherWithDate. Error validating WeatherEntry " + i,
+                    cursor,
+                    i == 3 ? updatedValues : insertedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * This test merges a forecast into the weather table twice, the way SunshineSyncTask does,
+     * and checks that:
+     * <p>
+     *   1) Days in the past are deleted, new days are inserted and changed days are updated
+     * <p>
+     *   2) Days that didn't change are left alone, and keep their _ID
+     * <p>
+     *   3) Observers are notified exactly once per merge
+     */
+    @Test
+    public void testSyncMergesForecast() throws Exception {
+        final int days = 14;
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long yesterday = today - SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Yesterday's forecast, which the merge below should clean up */
+        ContentValues[] oldForecast = createForecastTestWeatherValues(yesterday, days);
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, oldForecast);
+        long unchangedId = getIdForDate(today + SunshineDateUtils.DAY_IN_MILLIS);
+
+        /*
+         * Today's forecast is yesterday's moved on by a day, with a new last day. Two of the days
+         * we already have changed.
+         */
+        ContentValues[] forecast = createForecastTestWeatherValues(today, days);
+        for (int i = 0; i < days - 1; i++) {
+            forecast[i] = new ContentValues(oldForecast[i + 1]);
+        }
+        forecast[4].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.75);
+        forecast[9].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int changeCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI, forecast);
+
+        assertSingleNotification(weatherObserver);
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        /* Yesterday deleted, the last day inserted, and two days updated */
+        assertEquals("Wrong number of rows changed by the merge", 4, changeCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals("The merged forecast has the wrong number of days", days, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < days; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testSyncMergesForecast. Error validating WeatherEntry " + i,
+                    cursor,
+                    forecast[i]);
+        }
+        cursor.close();
+
+        assertEquals("A day that didn't change was rewritten",
+                unchangedId, getIdForDate(today + SunshineDateUtils.DAY_IN_MILLIS));
+
+        /* Merging the same forecast again changes nothing */
+        assertEquals("Merging an unchanged forecast shouldn't change any rows",
+                0, contentResolver.bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI, forecast));
+    }
+
+    /**
+     * A sync with fewer days than the one before it, as after a change of location, must not
+     * leave the extra days of the old forecast behind.
+     */
+    @Test
+    public void testShorterSyncDeletesDaysNotInForecast() throws Exception {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] oldForecast = createForecastTestWeatherValues(today, 14);
+        assertEquals(14, contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_SYNC_URI, oldForecast));
+
+        /* Another city's forecast, and only a week of it */
+        ContentValues[] forecast = createForecastTestWeatherValues(today, 7);
+        for (ContentValues day : forecast) {
+            day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 200);
+        }
+
+        /* Seven days updated and seven deleted */
+        assertEquals("Wrong number of rows changed by the merge",
+                14, contentResolver.bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI, forecast));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals("Days that aren't in the new forecast should be deleted",
+                forecast.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < forecast.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testShorterSyncDeletesDaysNotInForecast. Error validating WeatherEntry " + i,
+                    cursor,
+                    forecast[i]);
+        }
+        cursor.close();
+    }
+
+    private long getIdForDate(long date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(date),
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue("No weather for date " + date, cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Waits for the first notification, then gives any others that might follow it a moment to
+     * arrive, before checking that there was only one.
+     */
+    private static void assertSingleNotification(
+            final TestUtilities.TestContentObserver observer) throws InterruptedException {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return observer.mChangeCount > 0;
+            }
+        }.run();
+        Thread.sleep(500);
+
+        assertEquals("Observers should be notified exactly once", 1, observer.mChangeCount);
+        observer.waitForNotificationOrFail();
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.android.sunshine.data.TestUtilities.createForecastTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks weather.db is opened with write-ahead logging and the PRAGMA that goes with it, and that
+ * MainActivity's queries aren't held up while a sync is writing a new forecast.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWriteAheadLogging {
+
+    private static final String TAG = TestWriteAheadLogging.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* Days the "sync" adds, enough to make its transaction take a while */
+    private static final int SYNC_DAYS = 5000;
+
+    /*
+     * How long a read may take while the sync is writing. With a rollback journal the read
+     * would wait for the busy timeout, a couple of seconds, and then fail.
+     */
+    private static final long MAX_READ_MILLIS = 1000;
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        WeatherProvider.bulkInsertWeather(mDatabase,
+                createForecastTestWeatherValues(mToday, FORECAST_DAYS));
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testJournalModeIsWal() {
+        assertEquals("wal", queryPragma("journal_mode").toLowerCase());
+    }
+
+    /**
+     * synchronous is set on the connection that writes, which is the one a transaction uses.
+     */
+    @Test
+    public void testSynchronousIsNormal() {
+        mDatabase.beginTransaction();
+        try {
+            /* 1 is NORMAL */
+            assertEquals("1", queryPragma("synchronous"));
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Test
+    public void testCheckpointAfterWrite() {
+        WeatherProvider.bulkInsertWeather(mDatabase,
+                createForecastTestWeatherValues(mToday + FORECAST_DAYS
+                        * SunshineDateUtils.DAY_IN_MILLIS, SYNC_DAYS));
+
+        /* Nothing else is reading, so a passive checkpoint can copy the whole log back */
+        WeatherDbHelper.checkpoint(mDatabase);
+
+        Cursor cursor = mDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("The checkpoint shouldn't have been blocked", 0, cursor.getInt(0));
+            assertEquals("Every page in the log should have been checkpointed",
+                    cursor.getInt(1), cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Holds a sync's transaction open, like SunshineSyncTask merging a new forecast, and queries
+     * through the ContentProvider like MainActivity's CursorLoader does in the meantime. The
+     * query should return straight away, with the forecast as it was before the sync, and only
+     * see the new days once the sync's transaction has been committed.
+     */
+    @Test
+    public void testReadersAreNotBlockedDuringSyncWrite() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch commit = new CountDownLatch(1);
+        final AtomicReference<Throwable> writerError = new AtomicReference<>();
+
+        final ContentValues[] sync = createForecastTestWeatherValues(
+                mToday + FORECAST_DAYS * SunshineDateUtils.DAY_IN_MILLIS, SYNC_DAYS);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.beginTransaction();
+                try {
+                    WeatherProvider.bulkInsertWeather(mDatabase, sync);
+                    written.countDown();
+                    commit.await(10, TimeUnit.SECONDS);
+                    mDatabase.setTransactionSuccessful();
+                } catch (Throwable t) {
+                    writerError.set(t);
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            }
+        });
+        writer.start();
+
+        try {
+            assertTrue("The sync didn't write in time", written.await(10, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            int rowsDuringSync = queryUpcomingRows();
+            long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Log.i(TAG, "Read " + rowsDuringSync + " rows in " + readMillis
+                    + "ms while a sync was writing");
+
+            assertEquals("The read should see the forecast from before the sync",
+                    FORECAST_DAYS, rowsDuringSync);
+            assertTrue("The read was blocked by the sync for " + readMillis + "ms",
+                    readMillis < MAX_READ_MILLIS);
+        } finally {
+            commit.countDown();
+            writer.join();
+        }
+
+        assertNull("The sync failed: " + writerError.get(), writerError.get());
+        assertEquals("The read should see the sync once it's committed",
+                FORECAST_DAYS + SYNC_DAYS, queryUpcomingRows());
+    }
+
+    private int queryUpcomingRows() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                null,
+                null,
+                null);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryPragma(String pragma) {
+        Cursor cursor = mDatabase.rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertTrue("PRAGMA " + pragma + " returned nothing", cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SunshineWearUtils#createUnitsDataRequest(Context, boolean)} sends the units
+ * the user has just chosen, as the settings screen builds it straight after the change.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineWearUtils {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final SharedPreferences mPreferences =
+            PreferenceManager.getDefaultSharedPreferences(mContext);
+
+    @Before
+    public void setUp() {
+        mPreferences.edit().clear().commit();
+        SunshinePreferences.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        mPreferences.edit().clear().commit();
+        SunshinePreferences.invalidate();
+    }
+
+    @Test
+    public void testUnitsRequestHasNewUnits() {
+        assertTrue("Metric is the default", isMetric(
+                SunshineWearUtils.createUnitsDataRequest(mContext, true)));
+
+        /*
+         * This is what the settings screen sees: the preference has been written, but the
+         * listener that SunshinePreferences relies on runs later, on the main thread.
+         */
+        mPreferences.edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        SunshinePreferences.invalidate();
+
+        PutDataRequest request = SunshineWearUtils.createUnitsDataRequest(mContext, true);
+        assertFalse("The watch would be sent the old units", isMetric(request));
+        assertTrue("A change of units should reach the watch straight away", request.isUrgent());
+    }
+
+    private static boolean isMetric(PutDataRequest request) {
+        return DataMap.fromByteArray(request.getData()).getBoolean(MainActivity.METRIC_KEY);
+    }
+}
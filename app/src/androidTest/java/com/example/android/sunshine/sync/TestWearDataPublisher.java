@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.MainActivity;
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests that {@link WearDataPublisher} recognises weather the watch already has, whatever time it
+ * was sent at, and tells apart changes the watch face shows from those it doesn't.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearDataPublisher {
+
+    private static DataMap createWeather(String time, int max) {
+        DataMap dataMap = new DataMap();
+        dataMap.putInt(MainActivity.WEATHER_ID_KEY, 800);
+        dataMap.putInt(MainActivity.WEATHER_MAX_KEY, max);
+        dataMap.putInt(MainActivity.WEATHER_MIN_KEY, 1000);
+        dataMap.putString(MainActivity.TIME_KEY, time);
+        return dataMap;
+    }
+
+    @Test
+    public void testFingerprintIgnoresTime() {
+        DataMap first = createWeather("Mon Jan 02 10:00:00 GMT 2017", 2000);
+        DataMap second = createWeather("Mon Jan 02 11:00:00 GMT 2017", 2000);
+
+        assertEquals("Only the time changed, so the watch already has this weather",
+                WearDataPublisher.fingerprint(first, null),
+                WearDataPublisher.fingerprint(second, null));
+    }
+
+    @Test
+    public void testFingerprintChangesWithWeather() {
+        DataMap first = createWeather("Mon Jan 02 10:00:00 GMT 2017", 2000);
+        DataMap second = createWeather("Mon Jan 02 10:00:00 GMT 2017", 2100);
+
+        assertFalse("The high changed, so the weather must be sent again",
+                WearDataPublisher.fingerprint(first, null).equals(
+                        WearDataPublisher.fingerprint(second, null)));
+        assertFalse("The high is shown on the watch, so it must be sent urgently",
+                WearDataPublisher.fingerprint(first, SunshineWearUtils.DISPLAYED_KEYS).equals(
+                        WearDataPublisher.fingerprint(second, SunshineWearUtils.DISPLAYED_KEYS)));
+    }
+
+    @Test
+    public void testHiddenChangesAreNotDisplayed() {
+        DataMap first = createWeather("Mon Jan 02 10:00:00 GMT 2017", 2000);
+        DataMap second = createWeather("Mon Jan 02 10:00:00 GMT 2017", 2000);
+        second.putString("notShown", "anything");
+
+        assertFalse(WearDataPublisher.fingerprint(first, null).equals(
+                WearDataPublisher.fingerprint(second, null)));
+        assertEquals("Nothing the watch shows changed, so there's no need to wake it up",
+                WearDataPublisher.fingerprint(first, SunshineWearUtils.DISPLAYED_KEYS),
+                WearDataPublisher.fingerprint(second, SunshineWearUtils.DISPLAYED_KEYS));
+    }
+}
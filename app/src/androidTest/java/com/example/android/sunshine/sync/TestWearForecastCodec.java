@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests that {@link WearForecastCodec} lays the forecast out exactly as the watch face expects
+ * to read it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearForecastCodec {
+
+    private static final String[] COLUMNS = {"date", "weather_id", "max", "min"};
+
+    private static MatrixCursor createForecast(int days) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < days; i++) {
+            cursor.addRow(new Object[]{
+                    today + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + i, 21.456 + i, -3.5 - i});
+        }
+        return cursor;
+    }
+
+    @Test
+    public void testLayout() {
+        MatrixCursor cursor = createForecast(3);
+        byte[] packed = WearForecastCodec.encode(cursor, 0, 1, 2, 3);
+
+        assertEquals(WearForecastCodec.HEADER_SIZE + 3 * WearForecastCodec.RECORD_SIZE,
+                packed.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        assertEquals(WearForecastCodec.VERSION, buffer.get());
+        assertEquals("No flags are defined", 0, buffer.get());
+        assertEquals(3, buffer.getShort());
+
+        cursor.moveToFirst();
+        long epochDay = cursor.getLong(0) / SunshineDateUtils.DAY_IN_MILLIS;
+        assertEquals(epochDay, buffer.getInt());
+        assertEquals(800, buffer.getShort());
+        assertEquals("Temperatures are rounded to hundredths of a degree", 2146, buffer.getShort());
+        assertEquals(-350, buffer.getShort());
+
+        assertEquals(epochDay + 1, buffer.getInt());
+    }
+
+    @Test
+    public void testDayLimit() {
+        byte[] packed = WearForecastCodec.encode(createForecast(20), 0, 1, 2, 3);
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+
+        assertEquals(WearForecastCodec.MAX_DAYS, buffer.getShort(2));
+        assertEquals(WearForecastCodec.HEADER_SIZE
+                + WearForecastCodec.MAX_DAYS * WearForecastCodec.RECORD_SIZE, packed.length);
+    }
+}
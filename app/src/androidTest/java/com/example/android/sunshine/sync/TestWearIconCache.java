@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link WearIconCache} only encodes each icon once, identifies icons by their
+ * content, and remembers which icons the watch has been sent.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearIconCache {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        WearIconCache.clearSentIcons(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        WearIconCache.clearSentIcons(mContext);
+    }
+
+    @Test
+    public void testIconIsOnlyEncodedOnce() {
+        WearIconCache.Icon first = WearIconCache.getIcon(mContext, R.drawable.ic_clear);
+        long hits = WearIconCache.getEncodeHitCount();
+        long misses = WearIconCache.getEncodeMissCount();
+
+        WearIconCache.Icon second = WearIconCache.getIcon(mContext, R.drawable.ic_clear);
+        assertSame("The icon was encoded again", first, second);
+        assertEquals(hits + 1, WearIconCache.getEncodeHitCount());
+        assertEquals(misses, WearIconCache.getEncodeMissCount());
+    }
+
+    @Test
+    public void testIconsAreIdentifiedByContent() {
+        WearIconCache.Icon clear = WearIconCache.getIcon(mContext, R.drawable.ic_clear);
+        WearIconCache.Icon storm = WearIconCache.getIcon(mContext, R.drawable.ic_storm);
+
+        assertNotNull(clear.hash);
+        assertEquals("A SHA-1 hash is 40 hex digits", 40, clear.hash.length());
+        assertEquals(WearIconCache.hash(clear.png), clear.hash);
+        assertFalse("Different icons must have different hashes", clear.hash.equals(storm.hash));
+    }
+
+    @Test
+    public void testIconIsOnlySentOnce() {
+        String hash = WearIconCache.getIcon(mContext, R.drawable.ic_rain).hash;
+        long sent = WearIconCache.getAssetsSentCount();
+        long skipped = WearIconCache.getAssetsSkippedCount();
+
+        assertFalse("The watch hasn't been sent this icon yet",
+                WearIconCache.isSent(mContext, hash));
+        assertFalse("Until the update carrying it is stored, the icon should be sent again",
+                WearIconCache.isSent(mContext, hash));
+        assertEquals(sent + 2, WearIconCache.getAssetsSentCount());
+
+        WearIconCache.markSent(mContext, hash);
+        assertTrue("The watch has been sent this icon already",
+                WearIconCache.isSent(mContext, hash));
+        assertEquals(skipped + 1, WearIconCache.getAssetsSkippedCount());
+
+        WearIconCache.clearSentIcons(mContext);
+        assertFalse("After clearing, the icon should be sent again",
+                WearIconCache.isSent(mContext, hash));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static com.example.android.sunshine.utilities.TestUtilities.FORECAST_DAYS;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests that {@link ForecastHttpCache} hands back the validators and body it was given, and only
+ * for the URL they came from.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastHttpCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ETAG = "\"5375480-14-1485892800\"";
+    private static final String LAST_MODIFIED = "Tue, 31 Jan 2017 20:00:00 GMT";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private URL mUrl;
+    private URL mOtherUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mUrl = new URL("https://andfun-weather.udacity.com/staticweather?q=94043&cnt=14");
+        mOtherUrl = new URL("https://andfun-weather.udacity.com/staticweather?q=10001&cnt=14");
+        ForecastHttpCache.clear(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        ForecastHttpCache.clear(mContext);
+    }
+
+    @Test
+    public void testValidatorsAndBodyAreCached() {
+        byte[] body = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        ForecastHttpCache.put(mContext, mUrl, ETAG, LAST_MODIFIED, ByteBuffer.wrap(body),
+                body.length / 4);
+
+        ForecastHttpCache.Validators validators = ForecastHttpCache.getValidators(mContext, mUrl);
+        assertNotNull("The validators weren't cached", validators);
+        assertEquals(ETAG, validators.eTag);
+        assertEquals(LAST_MODIFIED, validators.lastModified);
+        assertEquals(body.length, validators.bodyLength);
+        assertEquals(body.length / 4, validators.downloadedLength);
+
+        ByteBuffer cached = ForecastHttpCache.getCachedResponse(mContext);
+        assertNotNull("The body wasn't cached", cached);
+        try {
+            assertEquals(ByteBuffer.wrap(body), cached);
+        } finally {
+            NetworkUtils.recycleResponseBytes(cached);
+        }
+    }
+
+    @Test
+    public void testEitherValidatorIsEnough() {
+        ByteBuffer body = ByteBuffer.wrap("{}".getBytes(UTF_8));
+
+        ForecastHttpCache.put(mContext, mUrl, null, LAST_MODIFIED, body, body.remaining());
+        ForecastHttpCache.Validators validators = ForecastHttpCache.getValidators(mContext, mUrl);
+        assertNotNull(validators);
+        assertNull(validators.eTag);
+        assertEquals(LAST_MODIFIED, validators.lastModified);
+
+        ForecastHttpCache.put(mContext, mUrl, ETAG, null, body, body.remaining());
+        validators = ForecastHttpCache.getValidators(mContext, mUrl);
+        assertNotNull(validators);
+        assertEquals(ETAG, validators.eTag);
+        assertNull(validators.lastModified);
+    }
+
+    @Test
+    public void testValidatorsAreNotUsedForAnotherUrl() {
+        ForecastHttpCache.put(mContext, mUrl, ETAG, LAST_MODIFIED,
+                ByteBuffer.wrap("{}".getBytes(UTF_8)), 2);
+
+        assertNull("Validators for one location were used for another",
+                ForecastHttpCache.getValidators(mContext, mOtherUrl));
+    }
+
+    @Test
+    public void testResponseWithoutValidatorsClearsCache() {
+        ByteBuffer body = ByteBuffer.wrap("{}".getBytes(UTF_8));
+        ForecastHttpCache.put(mContext, mUrl, ETAG, LAST_MODIFIED, body, body.remaining());
+        ForecastHttpCache.put(mContext, mUrl, null, null, body, body.remaining());
+
+        assertNull(ForecastHttpCache.getValidators(mContext, mUrl));
+        assertNull(ForecastHttpCache.getCachedResponse(mContext));
+    }
+
+    @Test
+    public void testHitsAndMissesAreCounted() {
+        long hits = ForecastHttpCache.getHitCount();
+        long misses = ForecastHttpCache.getMissCount();
+        long saved = ForecastHttpCache.getBytesSaved();
+        long downloaded = ForecastHttpCache.getBytesDownloaded();
+        long decompressed = ForecastHttpCache.getBytesDecompressed();
+
+        ForecastHttpCache.recordMiss(1000, 4000);
+        ForecastHttpCache.recordHit(1000);
+        ForecastHttpCache.recordHit(1000);
+
+        assertEquals(hits + 2, ForecastHttpCache.getHitCount());
+        assertEquals(misses + 1, ForecastHttpCache.getMissCount());
+        assertEquals(saved + 2000, ForecastHttpCache.getBytesSaved());
+        assertEquals(downloaded + 1000, ForecastHttpCache.getBytesDownloaded());
+        assertEquals(decompressed + 4000, ForecastHttpCache.getBytesDecompressed());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+/**
+ * Checks that the cached {@link SunshineWeatherUtils#formatTemperature(Context, double)} writes
+ * exactly what formatting every time did, and compares the two over binding a 14 day forecast
+ * list, which formats a high and a low for every row.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFormatTemperatureBenchmark {
+
+    private static final int ROWS = 14;
+    private static final int RUNS = 1000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /* The highs and lows of a typical two weeks, in Celsius as stored in the database */
+    private final double[] mHighs = new double[ROWS];
+    private final double[] mLows = new double[ROWS];
+
+    public TestFormatTemperatureBenchmark() {
+        for (int i = 0; i < ROWS; i++) {
+            mHighs[i] = 18.3 + (i % 5) * 1.7;
+            mLows[i] = 6.1 + (i % 4) * 1.3;
+        }
+    }
+
+    /**
+     * What formatTemperature did before it had a cache.
+     */
+    private String formatTemperatureEveryTime(double temperature) {
+        if (!SunshinePreferences.isMetric(mContext)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return SunshineWeatherUtils.formatTemperatureUncached(mContext, temperature);
+    }
+
+    @Test
+    public void testCachedTextMatchesFormattedText() {
+        for (double temperature = -45; temperature <= 50; temperature += 0.05) {
+            assertEquals("Wrong text for " + temperature,
+                    formatTemperatureEveryTime(temperature),
+                    SunshineWeatherUtils.formatTemperature(mContext, temperature));
+        }
+    }
+
+    @Test
+    public void testSameTemperatureGivesSameString() {
+        assertSame(SunshineWeatherUtils.formatTemperature(mContext, 21.2),
+                SunshineWeatherUtils.formatTemperature(mContext, 20.9));
+    }
+
+    @Test
+    public void testBindForecastList() throws Exception {
+        Benchmark.Result everyTime = Benchmark.measure("formatTemperature every time", RUNS,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < ROWS; i++) {
+                            formatTemperatureEveryTime(mHighs[i]);
+                            formatTemperatureEveryTime(mLows[i]);
+                        }
+                    }
+                });
+
+        Benchmark.Result cached = Benchmark.measure("formatTemperature cached", RUNS,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < ROWS; i++) {
+                            SunshineWeatherUtils.formatTemperature(mContext, mHighs[i]);
+                            SunshineWeatherUtils.formatTemperature(mContext, mLows[i]);
+                        }
+                    }
+                });
+
+        Benchmark.compare(everyTime, cached);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SunshineDateUtils#getFriendlyDateString(Context, long, boolean)} only writes
+ * each date once, keeps short and full dates apart, and writes them again once cleared or once
+ * the UTC day changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFriendlyDateCache {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final long mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    @Before
+    public void setUp() {
+        SunshineDateUtils.clearFriendlyDateCache();
+    }
+
+    @After
+    public void tearDown() {
+        SunshineDateUtils.clearFriendlyDateCache();
+    }
+
+    @Test
+    public void testDateIsOnlyWrittenOnce() {
+        String first = SunshineDateUtils.getFriendlyDateString(mContext, mToday, false);
+        String second = SunshineDateUtils.getFriendlyDateString(mContext, mToday, false);
+        assertSame("The date was written again", first, second);
+        assertTrue(first.contains(mContext.getString(R.string.today)));
+    }
+
+    @Test
+    public void testShortAndFullDatesAreKeptApart() {
+        long inTenDays = mToday + 10 * SunshineDateUtils.DAY_IN_MILLIS;
+        String shortDate = SunshineDateUtils.getFriendlyDateString(mContext, inTenDays, false);
+        String fullDate = SunshineDateUtils.getFriendlyDateString(mContext, inTenDays, true);
+        assertFalse("A full date isn't the same as a short one", shortDate.equals(fullDate));
+    }
+
+    @Test
+    public void testClearWritesDatesAgain() {
+        String before = SunshineDateUtils.getFriendlyDateString(mContext, mToday, true);
+        SunshineDateUtils.clearFriendlyDateCache();
+        String after = SunshineDateUtils.getFriendlyDateString(mContext, mToday, true);
+        assertNotSame(before, after);
+        assertEquals(before, after);
+    }
+
+    @Test
+    public void testDatesAreWrittenAgainAfterUtcMidnight() {
+        /* "Today" is worked out from the UTC day, which can change before the local one does */
+        long utcMidnight = mToday + SunshineDateUtils.DAY_IN_MILLIS;
+        long before = utcMidnight - 60 * 1000;
+        long after = utcMidnight + 60 * 1000;
+
+        /* Write a few days either side of it just before UTC midnight, as the list would */
+        String[] cachedBefore = new String[5];
+        for (int day = 0; day < cachedBefore.length; day++) {
+            long date = utcMidnight + (day - 2) * SunshineDateUtils.DAY_IN_MILLIS;
+            cachedBefore[day] =
+                    SunshineDateUtils.getFriendlyDateString(mContext, date, false, before);
+            assertEquals(SunshineDateUtils.formatFriendlyDateString(mContext, date, false, before),
+                    cachedBefore[day]);
+        }
+
+        /* Just after it, every day has to be written as if nothing had been cached */
+        boolean anyChanged = false;
+        for (int day = 0; day < cachedBefore.length; day++) {
+            long date = utcMidnight + (day - 2) * SunshineDateUtils.DAY_IN_MILLIS;
+            String cachedAfter =
+                    SunshineDateUtils.getFriendlyDateString(mContext, date, false, after);
+            assertEquals("A date written before UTC midnight was still used after it",
+                    SunshineDateUtils.formatFriendlyDateString(mContext, date, false, after),
+                    cachedAfter);
+            anyChanged |= !cachedBefore[day].equals(cachedAfter);
+        }
+        assertTrue("\"Today\" should have moved on at UTC midnight", anyChanged);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Scanner;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.android.sunshine.utilities.TestUtilities.FORECAST_DAYS;
+import static com.example.android.sunshine.utilities.TestUtilities.MAX_FORECAST_DAYS;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link NetworkUtils} reads responses into its pooled buffers without losing or
+ * changing any bytes, whether the server compressed them or not, and compares it with the Scanner
+ * based reader it replaced. The HTTP tests talk to a {@link TestWebServer} on the device itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BENCHMARK_RUNS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private TestWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new TestWebServer();
+        ForecastHttpCache.clear(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastHttpCache.clear(mContext);
+    }
+
+    @Test
+    public void testReadResponseWithContentLength() throws Exception {
+        byte[] response = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        assertResponseRead(response, response.length);
+    }
+
+    @Test
+    public void testReadResponseWithoutContentLength() throws Exception {
+        byte[] response = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        assertResponseRead(response, -1);
+    }
+
+    @Test
+    public void testReadResponseWithShortContentLength() throws Exception {
+        /* A server that lies about the length must not cost us the end of the response */
+        byte[] response = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        assertResponseRead(response, response.length / 3);
+    }
+
+    @Test
+    public void testReadResponseLargerThanDefaultBuffer() throws Exception {
+        StringBuilder json = new StringBuilder();
+        while (json.length() < 100 * 1024) {
+            json.append(TestUtilities.createForecastJson(MAX_FORECAST_DAYS));
+        }
+        assertResponseRead(json.toString().getBytes(UTF_8), -1);
+    }
+
+    @Test
+    public void testReadEmptyResponse() throws Exception {
+        assertResponseRead(new byte[0], -1);
+        assertResponseRead(new byte[0], 0);
+    }
+
+    /**
+     * A Content-Length far bigger than the body must not be trusted to size the buffer, or a bad
+     * header would run us out of memory before anything is read.
+     */
+    @Test
+    public void testReadResponseWithHugeContentLength() throws Exception {
+        byte[] response = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        assertResponseRead(response, 1500 * 1024 * 1024);
+        assertResponseRead(response, Integer.MAX_VALUE);
+    }
+
+    /* A body longer than the largest initial buffer still has to be read to the end */
+    @Test
+    public void testReadResponseLongerThanInitialBuffer() throws Exception {
+        byte[] response = new byte[600 * 1024];
+        for (int i = 0; i < response.length; i++) {
+            response[i] = (byte) i;
+        }
+        assertResponseRead(response, response.length);
+    }
+
+    @Test
+    public void testCompareReadersWithContentLength() throws Exception {
+        compareReaders(true);
+    }
+
+    @Test
+    public void testCompareReadersWithoutContentLength() throws Exception {
+        compareReaders(false);
+    }
+
+    @Test
+    public void testRequestAsksForCompressedResponse() throws Exception {
+        mServer.setResponse(200, "OK", "{}".getBytes(UTF_8));
+        NetworkUtils.recycleResponseBytes(
+                NetworkUtils.getResponseBytesFromHttpUrl(mServer.getUrl()));
+
+        String acceptEncoding = mServer.getLastRequestHeader("Accept-Encoding");
+        assertNotNull("The request didn't ask for a compressed response", acceptEncoding);
+        assertTrue("The request didn't ask for gzip", acceptEncoding.contains("gzip"));
+    }
+
+    @Test
+    public void testUncompressedResponse() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        mServer.setResponse(200, "OK", json, "Content-Type", "application/json");
+        assertServerResponse(json);
+
+        mServer.setSendContentLength(false);
+        assertServerResponse(json);
+    }
+
+    @Test
+    public void testGzipResponse() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        byte[] compressed = gzip(json);
+        assertTrue("The forecast should compress well", compressed.length * 3 < json.length);
+
+        mServer.setResponse(200, "OK", compressed, "Content-Encoding", "gzip");
+        assertServerResponse(json);
+
+        mServer.setSendContentLength(false);
+        assertServerResponse(json);
+    }
+
+    @Test
+    public void testDeflateResponse() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        mServer.setResponse(200, "OK", deflate(json), "Content-Encoding", "deflate");
+        assertServerResponse(json);
+    }
+
+    /* Many servers send "deflate" without the zlib wrapper it's supposed to have */
+    @Test
+    public void testRawDeflateResponse() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        mServer.setResponse(200, "OK", rawDeflate(json), "Content-Encoding", "deflate");
+        assertServerResponse(json);
+    }
+
+    @Test
+    public void testZlibHeaderDetection() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+
+        assertTrue(NetworkUtils.isZlibWrapped(
+                new PushbackInputStream(new ByteArrayInputStream(deflate(json)), 2)));
+        assertFalse(NetworkUtils.isZlibWrapped(
+                new PushbackInputStream(new ByteArrayInputStream(rawDeflate(json)), 2)));
+        assertFalse(NetworkUtils.isZlibWrapped(
+                new PushbackInputStream(new ByteArrayInputStream(new byte[1]), 2)));
+    }
+
+    @Test
+    public void testNotModifiedResponse() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        String eTag = "\"forecast-1\"";
+
+        mServer.setResponse(200, "OK", gzip(json), "Content-Encoding", "gzip", "ETag", eTag);
+        ByteBuffer response = NetworkUtils.getResponseBytesFromHttpUrl(mContext, mServer.getUrl());
+        assertNotNull(response);
+        NetworkUtils.recycleResponseBytes(response);
+        assertNull("The first request had nothing to validate",
+                mServer.getLastRequestHeader("If-None-Match"));
+
+        long hits = ForecastHttpCache.getHitCount();
+        mServer.setResponse(304, "Not Modified", new byte[0], "ETag", eTag);
+        assertNull("A 304 should mean there's nothing new to parse",
+                NetworkUtils.getResponseBytesFromHttpUrl(mContext, mServer.getUrl()));
+        assertEquals(eTag, mServer.getLastRequestHeader("If-None-Match"));
+        assertEquals(hits + 1, ForecastHttpCache.getHitCount());
+
+        /* The cached copy is the decompressed forecast, ready to be parsed */
+        ByteBuffer cached = ForecastHttpCache.getCachedResponse(mContext);
+        assertNotNull(cached);
+        try {
+            assertEquals(ByteBuffer.wrap(json), cached);
+        } finally {
+            NetworkUtils.recycleResponseBytes(cached);
+        }
+    }
+
+    /**
+     * The bytes downloaded are the compressed bytes that came over the network, not what they
+     * decompressed to, and a 304 saves what the cached response took to download.
+     */
+    @Test
+    public void testCompressedBytesAreCounted() throws Exception {
+        byte[] json = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        byte[] compressed = gzip(json);
+        String eTag = "\"forecast-1\"";
+
+        long downloaded = ForecastHttpCache.getBytesDownloaded();
+        long decompressed = ForecastHttpCache.getBytesDecompressed();
+        mServer.setResponse(200, "OK", compressed, "Content-Encoding", "gzip", "ETag", eTag);
+        NetworkUtils.recycleResponseBytes(
+                NetworkUtils.getResponseBytesFromHttpUrl(mContext, mServer.getUrl()));
+
+        assertEquals("Only the compressed bytes came over the network",
+                downloaded + compressed.length, ForecastHttpCache.getBytesDownloaded());
+        assertEquals(decompressed + json.length, ForecastHttpCache.getBytesDecompressed());
+
+        long saved = ForecastHttpCache.getBytesSaved();
+        mServer.setResponse(304, "Not Modified", new byte[0], "ETag", eTag);
+        assertNull(NetworkUtils.getResponseBytesFromHttpUrl(mContext, mServer.getUrl()));
+        assertEquals("The 304 saved downloading the compressed response again",
+                saved + compressed.length, ForecastHttpCache.getBytesSaved());
+    }
+
+    private void assertServerResponse(byte[] expected) throws Exception {
+        ByteBuffer actual = NetworkUtils.getResponseBytesFromHttpUrl(mServer.getUrl());
+        try {
+            assertEquals("The response doesn't match what the server sent",
+                    ByteBuffer.wrap(expected), actual);
+        } finally {
+            NetworkUtils.recycleResponseBytes(actual);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(compressed);
+        out.write(bytes);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(compressed);
+        out.write(bytes);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] rawDeflate(byte[] bytes) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(compressed,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write(bytes);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private static void assertResponseRead(byte[] expected, int contentLength) throws Exception {
+        /* Read it twice, so the second read comes out of a recycled buffer */
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer actual = NetworkUtils.readResponse(
+                    new ByteArrayInputStream(expected), contentLength);
+            try {
+                assertEquals("Wrong number of bytes read", expected.length, actual.remaining());
+                assertEquals("The bytes read don't match the response",
+                        ByteBuffer.wrap(expected), actual);
+            } finally {
+                NetworkUtils.recycleResponseBytes(actual);
+            }
+        }
+    }
+
+    private static void compareReaders(boolean knownLength) throws Exception {
+        final byte[] response = TestUtilities.createForecastJson(FORECAST_DAYS).getBytes(UTF_8);
+        final int contentLength = knownLength ? response.length : -1;
+        String suffix = knownLength ? ", known length" : ", unknown length";
+
+        Benchmark.Result scanner = Benchmark.measure("Scanner reader" + suffix,
+                BENCHMARK_RUNS, new Benchmark.Block() {
+                    @Override
+                    public void run() throws Exception {
+                        readWithScanner(new ByteArrayInputStream(response));
+                    }
+                });
+
+        Benchmark.Result pooled = Benchmark.measure("Pooled reader" + suffix,
+                BENCHMARK_RUNS, new Benchmark.Block() {
+                    @Override
+                    public void run() throws Exception {
+                        ByteBuffer bytes = NetworkUtils.readResponse(
+                                new ByteArrayInputStream(response), contentLength);
+                        NetworkUtils.recycleResponseBytes(bytes);
+                    }
+                });
+
+        Benchmark.compare(scanner, pooled);
+    }
+
+    /**
+     * This is how NetworkUtils used to read a response, kept here as the baseline.
+     */
+    private static String readWithScanner(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+        try {
+            return scanner.hasNext() ? scanner.next() : null;
+        } finally {
+            scanner.close();
+        }
+    }
+}
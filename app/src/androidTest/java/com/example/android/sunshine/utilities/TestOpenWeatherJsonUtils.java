@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import static com.example.android.sunshine.utilities.TestUtilities.FORECAST_DAYS;
+import static com.example.android.sunshine.utilities.TestUtilities.MAX_FORECAST_DAYS;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that the streaming forecast parser in {@link OpenWeatherJsonUtils} produces exactly the
+ * same ContentValues as the JSONObject tree parser, and compares the two parsers' latency and
+ * allocations on 14 and 16 day forecasts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BENCHMARK_RUNS = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testStreamingParserMatchesTreeParser() throws Exception {
+        for (int days : new int[]{1, FORECAST_DAYS, MAX_FORECAST_DAYS}) {
+            String json = TestUtilities.createForecastJson(days);
+
+            ContentValues[] expected =
+                    OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+            ContentValues[] actual = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                    mContext, new ByteArrayInputStream(json.getBytes(UTF_8)));
+
+            assertNotNull(actual);
+            assertEquals("Wrong number of days parsed", expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals("Day " + i + " of " + days + " doesn't match the tree parser",
+                        expected[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingParserReturnsNullForErrorCode() throws Exception {
+        String json = TestUtilities.createErrorJson();
+
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json));
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                mContext, new ByteArrayInputStream(json.getBytes(UTF_8))));
+    }
+
+    @Test
+    public void testStreamingParserRejectsIncompleteDay() throws Exception {
+        String json = TestUtilities.createForecastJson(2).replace("\"humidity\"", "\"wet\"");
+        try {
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                    mContext, new ByteArrayInputStream(json.getBytes(UTF_8)));
+            fail("A day without humidity should not parse");
+        } catch (JSONException expected) {
+            /* Same as the tree parser */
+        }
+    }
+
+    @Test
+    public void testCompareParsers14Days() throws Exception {
+        compareParsers(FORECAST_DAYS);
+    }
+
+    @Test
+    public void testCompareParsers16Days() throws Exception {
+        compareParsers(MAX_FORECAST_DAYS);
+    }
+
+    /**
+     * The tree parser is measured from the response bytes, as the old sync path had to turn the
+     * response into a String before it could parse it.
+     */
+    private void compareParsers(int days) throws Exception {
+        final byte[] response = TestUtilities.createForecastJson(days).getBytes(UTF_8);
+
+        Benchmark.Result tree = Benchmark.measure("Tree parser, " + days + " days",
+                BENCHMARK_RUNS, new Benchmark.Block() {
+                    @Override
+                    public void run() throws Exception {
+                        OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                                new String(response, UTF_8));
+                    }
+                });
+
+        Benchmark.Result streaming = Benchmark.measure("Streaming parser, " + days + " days",
+                BENCHMARK_RUNS, new Benchmark.Block() {
+                    @Override
+                    public void run() throws Exception {
+                        OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                                new ByteArrayInputStream(response));
+                    }
+                });
+
+        Benchmark.compare(tree, streaming);
+    }
+}
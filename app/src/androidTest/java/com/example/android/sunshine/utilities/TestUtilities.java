@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.Locale;
+
+/**
+ * Test data for the tests of Sunshine's network and JSON utilities.
+ */
+class TestUtilities {
+
+    /* The number of days the app asks the weather server for */
+    static final int FORECAST_DAYS = 14;
+
+    /* The largest number of days OpenWeatherMap's daily forecast will return */
+    static final int MAX_FORECAST_DAYS = 16;
+
+    private static final int[] WEATHER_IDS = {200, 301, 500, 511, 601, 741, 800, 801, 804, 905};
+
+    private static final String[] WEATHER_MAINS =
+            {"Thunderstorm", "Drizzle", "Rain", "Rain", "Snow", "Fog", "Clear", "Clouds", "Clouds",
+                    "Extreme"};
+
+    /**
+     * Builds a forecast response that looks like the ones OpenWeatherMap (and the Udacity weather
+     * server) send back, including the values Sunshine ignores. The values are deterministic so
+     * that repeated runs parse to exactly the same data.
+     *
+     * @param days Number of days in the "list" array
+     * @return The forecast JSON
+     */
+    static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder(days * 400 + 300);
+
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+
+            int weather = i % WEATHER_IDS.length;
+            double max = 18.5 + i * 0.75;
+            double min = 9.25 - i * 0.5;
+
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"%s\","
+                            + "\"description\":\"%s\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1485892800L + i * 86400L,
+                    (max + min) / 2, min, max, min + 1, max - 1, min + 2,
+                    1013.25 + i, 60 + i,
+                    WEATHER_IDS[weather], WEATHER_MAINS[weather],
+                    WEATHER_MAINS[weather].toLowerCase(Locale.US),
+                    1.5 + i * 0.25, (i * 37) % 360, (i * 7) % 100));
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Builds the kind of response the server sends back for a location it doesn't know.
+     */
+    static String createErrorJson() {
+        return "{\"cod\":\"404\",\"message\":\"city not found\"}";
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utils.Benchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Checks that looking weather conditions up in the tables in {@link SunshineWeatherUtils} gives
+ * exactly what running through the OpenWeatherMap ranges did, and compares the two for the
+ * icons over a realistic mix of conditions. The strings aren't compared, as getString costs far
+ * more than finding the string id either way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherConditionBenchmark {
+
+    private static final int LOOKUPS = 10000;
+    private static final int RUNS = 100;
+
+    /*
+     * Roughly how often each kind of condition comes up: mostly clear and cloudy, then rain,
+     * then everything else. Unknown ids are left out, as they're logged, which would swamp the
+     * lookups being measured.
+     */
+    private static final int[] COMMON_IDS = {800, 801, 802, 803, 804};
+    private static final int[] RAIN_IDS = {300, 301, 500, 501, 502, 511, 520, 521};
+    private static final int[] OTHER_IDS = {200, 211, 232, 600, 601, 622, 701, 741, 781, 905, 957};
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private static int[] createRealisticIds() {
+        Random random = new Random(42);
+        int[] ids = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int kind = random.nextInt(100);
+            int[] from;
+            if (kind < 60) {
+                from = COMMON_IDS;
+            } else if (kind < 85) {
+                from = RAIN_IDS;
+            } else {
+                from = OTHER_IDS;
+            }
+            ids[i] = from[random.nextInt(from.length)];
+        }
+        return ids;
+    }
+
+    @Test
+    public void testTablesMatchRanges() {
+        for (int weatherId = -10; weatherId < 1100; weatherId++) {
+            int stringId = SunshineWeatherUtils.getStringIdFromRanges(weatherId);
+            String expected = stringId == 0
+                    ? mContext.getString(R.string.condition_unknown, weatherId)
+                    : mContext.getString(stringId);
+            assertEquals("Wrong string for " + weatherId, expected,
+                    SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId));
+
+            int smallArt = SunshineWeatherUtils.getSmallArtResourceIdFromRanges(weatherId);
+            assertEquals("Wrong small art for " + weatherId,
+                    smallArt == 0 ? R.drawable.ic_storm : smallArt,
+                    SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId));
+
+            int largeArt = SunshineWeatherUtils.getLargeArtResourceIdFromRanges(weatherId);
+            assertEquals("Wrong large art for " + weatherId,
+                    largeArt == 0 ? R.drawable.art_storm : largeArt,
+                    SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId));
+        }
+    }
+
+    @Test
+    public void testLookUpRealisticConditions() throws Exception {
+        final int[] ids = createRealisticIds();
+
+        Benchmark.Result ranges = Benchmark.measure("weather condition ranges", RUNS,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        for (int id : ids) {
+                            SunshineWeatherUtils.getSmallArtResourceIdFromRanges(id);
+                            SunshineWeatherUtils.getLargeArtResourceIdFromRanges(id);
+                        }
+                    }
+                });
+
+        Benchmark.Result tables = Benchmark.measure("weather condition tables", RUNS,
+                new Benchmark.Block() {
+                    @Override
+                    public void run() {
+                        for (int id : ids) {
+                            SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(id);
+                            SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(id);
+                        }
+                    }
+                });
+
+        Benchmark.compare(ranges, tables);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A very small HTTP server on the loopback interface, so the tests can check exactly what
+ * NetworkUtils asks for and how it copes with what comes back, without going anywhere near the
+ * real weather server. It answers every request with the same canned response, one request per
+ * connection, and remembers the headers of the last request it received.
+ */
+class TestWebServer {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+
+    private volatile int mResponseCode = 200;
+    private volatile String mResponseMessage = "OK";
+    private volatile byte[] mResponseBody = new byte[0];
+    private volatile Map<String, String> mResponseHeaders = new LinkedHashMap<>();
+    private volatile boolean mSendContentLength = true;
+
+    private volatile Map<String, String> mLastRequestHeaders;
+    private volatile int mRequestCount;
+
+    TestWebServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "TestWebServer");
+        mThread.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/weather");
+    }
+
+    /**
+     * Sets the response to send back for every request from now on.
+     *
+     * @param code    The status code, for example 200 or 304
+     * @param message The reason phrase, for example "OK"
+     * @param body    The bytes of the body, exactly as they should be sent
+     * @param headers Pairs of header names and values
+     */
+    void setResponse(int code, String message, byte[] body, String... headers) {
+        Map<String, String> responseHeaders = new LinkedHashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            responseHeaders.put(headers[i], headers[i + 1]);
+        }
+        mResponseCode = code;
+        mResponseMessage = message;
+        mResponseBody = body;
+        mResponseHeaders = responseHeaders;
+    }
+
+    /* Leaving out the Content-Length makes the body end when the connection closes */
+    void setSendContentLength(boolean sendContentLength) {
+        mSendContentLength = sendContentLength;
+    }
+
+    /**
+     * Returns the value of a header of the last request, or null if it wasn't sent.
+     */
+    String getLastRequestHeader(String name) {
+        Map<String, String> headers = mLastRequestHeaders;
+        return headers == null ? null : headers.get(name.toLowerCase(Locale.US));
+    }
+
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* The server socket was closed by shutdown() */
+                return;
+            }
+
+            try {
+                handle(socket);
+            } catch (IOException e) {
+                /* The client went away; wait for the next one */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    /* Nothing to do */
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), US_ASCII));
+
+        /* The request line, which we don't need */
+        if (reader.readLine() == null) {
+            return;
+        }
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                requestHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        mLastRequestHeaders = requestHeaders;
+        mRequestCount++;
+
+        byte[] body = mResponseBody;
+        boolean hasBody = mResponseCode != 304;
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(mResponseCode).append(' ').append(mResponseMessage)
+                .append("\r\n");
+        for (Map.Entry<String, String> header : mResponseHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (hasBody && mSendContentLength) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes(US_ASCII));
+        if (hasBody) {
+            out.write(body);
+        }
+        out.flush();
+    }
+}
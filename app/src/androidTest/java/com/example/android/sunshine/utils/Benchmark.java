@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * A very small helper for the comparisons our instrumented tests make between two ways of doing
+ * the same work. It runs a block of work a number of times, after a few warm up runs, and records
+ * the average wall clock time as well as the objects and bytes allocated by the calling thread.
+ * <p>
+ * The results are written to logcat under the "Benchmark" tag, so they can be collected from a
+ * test run with: adb logcat -s Benchmark
+ */
+public final class Benchmark {
+
+    private static final String TAG = "Benchmark";
+
+    private static final int WARM_UP_RUNS = 3;
+
+    /**
+     * The work to be measured.
+     */
+    public interface Block {
+        void run() throws Exception;
+    }
+
+    /**
+     * The averages for a single measured block of work.
+     */
+    public static final class Result {
+        public final String label;
+        public final long nanosPerRun;
+        public final long allocationsPerRun;
+        public final long bytesPerRun;
+
+        Result(String label, long nanosPerRun, long allocationsPerRun, long bytesPerRun) {
+            this.label = label;
+            this.nanosPerRun = nanosPerRun;
+            this.allocationsPerRun = allocationsPerRun;
+            this.bytesPerRun = bytesPerRun;
+        }
+
+        @Override
+        public String toString() {
+            return label + ": " + nanosPerRun / 1000 + " us, "
+                    + allocationsPerRun + " allocations, "
+                    + bytesPerRun + " bytes per run";
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the block of work and logs the averages.
+     *
+     * @param label Name of the work, used in the log output
+     * @param runs  Number of measured runs
+     * @param block The work to measure
+     * @return The averages per run
+     */
+    @SuppressWarnings("deprecation")
+    public static Result measure(String label, int runs, Block block) throws Exception {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            block.run();
+        }
+
+        /* Start from a clean heap so a collection in the middle doesn't skew the timing */
+        Runtime.getRuntime().gc();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            block.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Debug.stopAllocCounting();
+
+        Result result = new Result(label,
+                elapsed / runs,
+                Debug.getThreadAllocCount() / runs,
+                Debug.getThreadAllocSize() / runs);
+
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    /**
+     * Logs how one result compares with another, for example a new implementation against the
+     * one it replaces.
+     */
+    public static void compare(Result baseline, Result candidate) {
+        Log.i(TAG, candidate.label + " vs " + baseline.label + ": "
+                + ratio(candidate.nanosPerRun, baseline.nanosPerRun) + " time, "
+                + ratio(candidate.allocationsPerRun, baseline.allocationsPerRun) + " allocations, "
+                + ratio(candidate.bytesPerRun, baseline.bytesPerRun) + " bytes");
+    }
+
+    private static String ratio(long candidate, long baseline) {
+        if (baseline == 0) return "n/a";
+        return String.format(Locale.US, "%.2fx", (double) candidate / baseline);
+    }
+}
@@ -16,16 +16,11 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
-import android.content.IntentSender;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
@@ -42,27 +37,15 @@ import android.widget.ProgressBar;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.sync.SunshineWearUtils;
+import com.example.android.sunshine.sync.WearDataPublisher;
+import com.example.android.sunshine.sync.WearForecastCodec;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.ByteArrayOutputStream;
-import java.util.Calendar;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        ForecastAdapter.ForecastAdapterOnClickHandler,
-        GoogleApiClient.OnConnectionFailedListener,
-        GoogleApiClient.ConnectionCallbacks{
+        ForecastAdapter.ForecastAdapterOnClickHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
@@ -73,13 +56,15 @@ public class MainActivity extends AppCompatActivity implements
     public static final String WEATHER_WEAR_PATH = "/wearweather";
     //keys
     public static final String WEATHER_IMAGE_KEY = "image";
-    public static final String WEATHER_MAX_KEY = "max";
-    public static final String WEATHER_MIN_KEY = "min";
+    public static final String WEATHER_IMAGE_HASH_KEY = "imageHash";
+    public static final String WEATHER_ID_KEY = "weatherId";
+    public static final String WEATHER_MAX_KEY = "maxCenti";
+    public static final String WEATHER_MIN_KEY = "minCenti";
+    public static final String WEATHER_FORECAST_KEY = "forecast";
     public static final String TIME_KEY = "time";
-
-    private GoogleApiClient mGoogleApiClient;
-    private boolean mResolvingError = false;
-    private static final int REQUEST_RESOLVE_ERROR = 1000;
+    //the units live at their own path, so changing them doesn't mean sending the weather again
+    public static final String SETTINGS_WEAR_PATH = "/wearsettings";
+    public static final String METRIC_KEY = "metric";
 
     /*
      * The columns of data that we are interested in displaying within our MainActivity's list of
@@ -192,17 +177,6 @@ public class MainActivity extends AppCompatActivity implements
         getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
 
         SunshineSyncUtils.initialize(this);
-
-        /**
-         * Initialize the GoogleApiClient
-         */
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-
-
     }
 
     /**
@@ -247,21 +221,18 @@ public class MainActivity extends AppCompatActivity implements
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * URI for the weather from today onwards. The provider works out what today is,
+                 * so we don't need a SELECTION to filter out the days that are in the past.
                  */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI;
+                /* Sort order: Ascending by date */
+                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
                 return new CursorLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
-                        selection,
+                        null,
                         null,
                         sortOrder);
 
@@ -291,20 +262,17 @@ public class MainActivity extends AppCompatActivity implements
         //Take today's data and send that to the wear as dataItems
         if (data.moveToFirst()) {
             String friendlyDate = SunshineDateUtils.getFriendlyDateString(getApplicationContext(), data.getLong(INDEX_WEATHER_DATE), false);
-            String max = SunshineWeatherUtils.formatTemperature(this, data.getDouble(INDEX_WEATHER_MAX_TEMP));
-            String min = SunshineWeatherUtils.formatTemperature(this, data.getDouble(INDEX_WEATHER_MIN_TEMP));
+            //the watch formats the temperatures itself, in the units the user has chosen
+            double max = data.getDouble(INDEX_WEATHER_MAX_TEMP);
+            double min = data.getDouble(INDEX_WEATHER_MIN_TEMP);
 
-            int weatherIconId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-            Bitmap bitmap = BitmapFactory.decodeResource(getResources(), SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherIconId));
-            Asset imageAsset = createAssetFromBitmap(bitmap);
-            sendWeatherWearData(imageAsset, min, max);
-        }
-    }
+            int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
 
-    public static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
+            //the watch also gets the rest of the days, so the user can tap through them
+            byte[] forecast = WearForecastCodec.encode(data, INDEX_WEATHER_DATE,
+                    INDEX_WEATHER_CONDITION_ID, INDEX_WEATHER_MAX_TEMP, INDEX_WEATHER_MIN_TEMP);
+            sendWeatherWearData(weatherId, min, max, forecast);
+        }
     }
 
     /**
@@ -411,92 +379,23 @@ public class MainActivity extends AppCompatActivity implements
 
     /**
      * send Wearable DataItems to the wear
-     * @param asset
+     * @param weatherId
      * @param minTemp
      * @param maxTemp
+     * @param forecast
      */
-    private void sendWeatherWearData(Asset asset, String minTemp, String maxTemp){
+    private void sendWeatherWearData(int weatherId, double minTemp, double maxTemp,
+                                     byte[] forecast){
         Log.d(TAG, "sendWeatherWearData: " + minTemp + " : " + maxTemp);
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_WEAR_PATH);
-        putDataMapRequest.getDataMap().putAsset(WEATHER_IMAGE_KEY, asset);
-        putDataMapRequest.getDataMap().putString(WEATHER_MAX_KEY, maxTemp);
-        putDataMapRequest.getDataMap().putString(WEATHER_MIN_KEY, minTemp);
-        putDataMapRequest.getDataMap().putString(TIME_KEY, Calendar.getInstance().getTime().toString());
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-        request.setUrgent();
-
-        PendingResult<DataApi.DataItemResult> pendingResult =
-                Wearable.DataApi.putDataItem(mGoogleApiClient, request);
-
-        pendingResult
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        Log.d(TAG, "onResult: Image was successfully sent to wear: " + dataItemResult.getStatus());
-                    }
-                });
-    }
-
-
-    /**
-     * connects the GoogleApiClient
-     */
-    @Override
-    protected void onResume() {
-        super.onResume();
-        if (mGoogleApiClient != null && !mResolvingError) {
-            mGoogleApiClient.connect();
-        }
-    }
-
-    /**
-     * Disconnects the GoogleApiClient
-     */
-    @Override
-    protected void onPause() {
-        super.onPause();
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected() && !mResolvingError) {
-            mGoogleApiClient.disconnect();
-        }
-    }
-
-    /**
-     * sets the error boolean variable to false
-     * @param bundle
-     */
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        mResolvingError = false;
-    }
-
-    /**
-     * Does nothing
-     * @param i
-     */
-    @Override
-    public void onConnectionSuspended(int i) {
-        //does nothing
-    }
-
-    /**
-     * Attempts to resolve the issue if there is a solution
-     * @param connectionResult
-     */
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-        Log.d(TAG, "onConnectionFailed: " + connectionResult.getErrorMessage());
-        if (!mResolvingError){
-            if (connectionResult.hasResolution()){
-                try{
-                    mResolvingError = true;
-                    connectionResult.startResolutionForResult(this, REQUEST_RESOLVE_ERROR);
-                } catch (IntentSender.SendIntentException e){
-                    mGoogleApiClient.connect();
-                }
-            }
-        }
+        PutDataMapRequest request =
+                SunshineWearUtils.createWeatherDataRequest(this, weatherId, minTemp, maxTemp,
+                        forecast);
 
+        /*
+         * The loader can finish several times in a row, and usually with the same weather the
+         * watch already has. The publisher waits a moment so only the newest is sent, and only if
+         * it's different from what was sent last, over the app's one connection to the wear.
+         */
+        WearDataPublisher.getInstance(this).publish(request);
     }
-
-
 }
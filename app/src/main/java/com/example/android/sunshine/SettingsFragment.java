@@ -27,6 +27,8 @@ import android.support.v7.preference.PreferenceScreen;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.sync.SunshineWearUtils;
+import com.example.android.sunshine.sync.WearableConnectionManager;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
@@ -94,6 +96,9 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         Activity activity = getActivity();
 
+        /* SunshinePreferences may not have seen this change yet, and it is about to be read */
+        SunshinePreferences.invalidate();
+
         if (key.equals(getString(R.string.pref_location_key))) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
@@ -102,6 +107,9 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the watch only needs to be told the new units; it has the weather in Celsius already
+            WearableConnectionManager.getInstance(activity)
+                    .putDataItem(SunshineWearUtils.createUnitsDataRequest(activity, true));
         }
         Preference preference = findPreference(key);
         if (null != preference) {
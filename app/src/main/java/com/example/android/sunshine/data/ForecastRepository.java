@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the current forecast in memory, so that the parts of Sunshine that only need a few values
+ * for a day or two (the notification, the watch face, the sync itself) don't each have to query
+ * the ContentProvider for them.
+ * <p>
+ * The forecast is held in a {@link Snapshot}, which stores each column in its own array of
+ * primitives rather than as a list of objects. A snapshot never changes once it has been built.
+ * When the forecast changes, a whole new snapshot is built from the ContentProvider and swapped
+ * in, so readers on any thread always see one complete forecast, never half of an old one and
+ * half of a new one.
+ * <p>
+ * The repository watches {@link WeatherContract.WeatherEntry#CONTENT_URI}, so any write to the
+ * weather, not just the sync, loads a new snapshot. Rather than re-querying, interested parts of
+ * the app can register an {@link OnForecastChangedListener} to be told whenever a new snapshot is
+ * swapped in.
+ */
+public final class ForecastRepository {
+
+    /**
+     * Listens for new forecasts. Listeners are always called on the main thread.
+     */
+    public interface OnForecastChangedListener {
+        void onForecastChanged(Snapshot forecast);
+    }
+
+    /*
+     * The columns a snapshot is built from. If the order of the Strings changes, the indices
+     * below must be adjusted to match. TestQueryPlans checks this is read from the covering index.
+     */
+    static final String[] SNAPSHOT_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+
+    private static final String TAG = ForecastRepository.class.getSimpleName();
+
+    private static final Object sLock = new Object();
+    private static ForecastRepository sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<OnForecastChangedListener> mListeners =
+            new CopyOnWriteArrayList<>();
+
+    /* Null until the forecast has been loaded for the first time */
+    private volatile Snapshot mSnapshot;
+
+    /*
+     * The WeatherProvider's version when the snapshot was loaded, so a change that the snapshot
+     * already has, like the one made by the sync just before it calls refresh, doesn't load it
+     * again. Guarded by this.
+     */
+    private long mSnapshotVersion;
+
+    /* How many times the forecast has been loaded from the ContentProvider, for the tests */
+    private final AtomicInteger mLoadCount = new AtomicInteger();
+
+    private ForecastRepository(Context context) {
+        mContext = context.getApplicationContext();
+
+        /*
+         * Loads a new snapshot whenever the weather changes, whoever changed it: the sync, the
+         * location being reset, an update to a single day. Its Handler runs on a thread of its
+         * own, so the query runs neither on the binder thread the change arrives on nor on the
+         * main thread.
+         */
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        ContentObserver weatherObserver = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                refreshIfChanged();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+    }
+
+    /**
+     * Returns the repository for this process.
+     *
+     * @param context Any context; the repository only keeps hold of the application context
+     * @return The one and only ForecastRepository
+     */
+    public static ForecastRepository getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new ForecastRepository(context);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns the current forecast. The first time this is called, the forecast is loaded from
+     * the ContentProvider on the calling thread, so don't make that first call from the main
+     * thread. After that, it never touches the database: the repository loads each new forecast
+     * itself when the weather changes.
+     *
+     * @return The current forecast, which may be empty but is never null
+     */
+    public Snapshot getForecast() {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    snapshot = load();
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reloads the forecast from the ContentProvider, swaps it in, and tells the listeners. Call
+     * this after writing new weather, for example at the end of a sync, to have it straight away
+     * rather than once the change has been reported. Like the first call to
+     * {@link #getForecast()}, this runs a query, so keep it off the main thread.
+     *
+     * @return The new forecast
+     */
+    public Snapshot refresh() {
+        final Snapshot snapshot;
+        synchronized (this) {
+            snapshot = load();
+        }
+        notifyListeners(snapshot);
+        return snapshot;
+    }
+
+    public void addOnForecastChangedListener(OnForecastChangedListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnForecastChangedListener(OnForecastChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /* How many times the forecast has been loaded from the ContentProvider */
+    int getLoadCount() {
+        return mLoadCount.get();
+    }
+
+    /**
+     * Called when the weather has changed. Loads a new snapshot unless the current one was loaded
+     * after the change was made.
+     */
+    private void refreshIfChanged() {
+        final Snapshot snapshot;
+        synchronized (this) {
+            if (mSnapshot != null && mSnapshotVersion == WeatherProvider.getWeatherVersion()) {
+                return;
+            }
+            snapshot = load();
+        }
+        notifyListeners(snapshot);
+    }
+
+    /**
+     * Loads the forecast and swaps it in. Only call this holding the lock, so that loads can't
+     * overtake each other and put an older forecast back.
+     */
+    private Snapshot load() {
+        /* Read before the query, so a write that lands during it is loaded again */
+        long version = WeatherProvider.getWeatherVersion();
+        Snapshot snapshot = loadSnapshot();
+        mSnapshotVersion = version;
+        mSnapshot = snapshot;
+        mLoadCount.incrementAndGet();
+        return snapshot;
+    }
+
+    private void notifyListeners(final Snapshot snapshot) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                /* Another load may have overtaken this one; only report the latest */
+                if (snapshot != mSnapshot) return;
+                for (OnForecastChangedListener listener : mListeners) {
+                    listener.onForecastChanged(snapshot);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries the ContentProvider for the weather from today onwards and copies it into a new
+     * snapshot, one array per column.
+     */
+    private Snapshot loadSnapshot() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI,
+                SNAPSHOT_PROJECTION,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        if (cursor == null) {
+            return Snapshot.EMPTY;
+        }
+
+        try {
+            int days = cursor.getCount();
+            if (days == 0) {
+                return Snapshot.EMPTY;
+            }
+
+            Snapshot snapshot = new Snapshot(days);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                snapshot.mDates[i] = cursor.getLong(INDEX_DATE);
+                snapshot.mWeatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                snapshot.mMinTemps[i] = cursor.getDouble(INDEX_MIN_TEMP);
+                snapshot.mMaxTemps[i] = cursor.getDouble(INDEX_MAX_TEMP);
+                snapshot.mHumidities[i] = cursor.getDouble(INDEX_HUMIDITY);
+                snapshot.mPressures[i] = cursor.getDouble(INDEX_PRESSURE);
+                snapshot.mWindSpeeds[i] = cursor.getDouble(INDEX_WIND_SPEED);
+                snapshot.mDegrees[i] = cursor.getDouble(INDEX_DEGREES);
+            }
+            return snapshot;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The forecast at one point in time, ordered by date. Days are read by their index, from 0
+     * to {@link #size()} - 1. The values are exactly what is stored in the database, so the
+     * temperatures are in Celsius.
+     */
+    public static final class Snapshot {
+
+        /* The forecast when there isn't one */
+        public static final Snapshot EMPTY = new Snapshot(0);
+
+        private final long[] mDates;
+        private final int[] mWeatherIds;
+        private final double[] mMinTemps;
+        private final double[] mMaxTemps;
+        private final double[] mHumidities;
+        private final double[] mPressures;
+        private final double[] mWindSpeeds;
+        private final double[] mDegrees;
+
+        private Snapshot(int days) {
+            mDates = new long[days];
+            mWeatherIds = new int[days];
+            mMinTemps = new double[days];
+            mMaxTemps = new double[days];
+            mHumidities = new double[days];
+            mPressures = new double[days];
+            mWindSpeeds = new double[days];
+            mDegrees = new double[days];
+        }
+
+        /* The number of days in the forecast */
+        public int size() {
+            return mDates.length;
+        }
+
+        public boolean isEmpty() {
+            return mDates.length == 0;
+        }
+
+        /**
+         * Finds the day with the given date.
+         *
+         * @param normalizedDate Normalized UTC date, as stored in the database
+         * @return The index of the day, or -1 if the forecast doesn't have it
+         */
+        public int indexOfDate(long normalizedDate) {
+            int index = Arrays.binarySearch(mDates, normalizedDate);
+            return index >= 0 ? index : -1;
+        }
+
+        /**
+         * Finds the first day on or after the given date. As the forecast starts from the day it
+         * was loaded on, this is how to find "today" in a forecast that might be a day old.
+         *
+         * @param normalizedDate Normalized UTC date, as stored in the database
+         * @return The index of the day, or -1 if the forecast has no days that late
+         */
+        public int indexOfFirstDayFrom(long normalizedDate) {
+            int index = Arrays.binarySearch(mDates, normalizedDate);
+            if (index < 0) {
+                /* binarySearch returns -(insertion point) - 1 when it doesn't find the date */
+                index = -index - 1;
+            }
+            return index < mDates.length ? index : -1;
+        }
+
+        public long getDate(int index) {
+            return mDates[index];
+        }
+
+        public int getWeatherId(int index) {
+            return mWeatherIds[index];
+        }
+
+        public double getMinTemp(int index) {
+            return mMinTemps[index];
+        }
+
+        public double getMaxTemp(int index) {
+            return mMaxTemps[index];
+        }
+
+        public double getHumidity(int index) {
+            return mHumidities[index];
+        }
+
+        public double getPressure(int index) {
+            return mPressures[index];
+        }
+
+        public double getWindSpeed(int index) {
+            return mWindSpeeds[index];
+        }
+
+        public double getDegrees(int index) {
+            return mDegrees[index];
+        }
+    }
+}
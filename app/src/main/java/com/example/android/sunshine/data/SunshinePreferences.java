@@ -21,6 +21,15 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
 
+/**
+ * Reads and writes the user's preferences.
+ * <p>
+ * Some of these are read very often; isMetric, for example, is read every time a temperature is
+ * formatted, which is every time a list item is bound. Rather than looking each one up in
+ * SharedPreferences every time, all of them are read once into a {@link Snapshot}, and the
+ * getters just read its fields. The snapshot is thrown away whenever a preference changes, and
+ * read again the next time it's needed.
+ */
 public final class SunshinePreferences {
 
     /*
@@ -31,23 +40,151 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    private static final Object sLock = new Object();
+
+    /* The current snapshot, or null if a preference has changed since it was read */
+    private static volatile Snapshot sSnapshot;
+
+    /*
+     * SharedPreferences only keeps a weak reference to its listeners, so this one is held here,
+     * for as long as the process lives, or it would stop being called.
+     */
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                    invalidate();
+                }
+            };
+
+    /* Guarded by sLock */
+    private static boolean sListenerRegistered;
+
+    /**
+     * Every preference SunshinePreferences reads, as it was when the snapshot was made.
+     */
+    private static final class Snapshot {
+
+        final String preferredWeatherLocation;
+        final boolean metric;
+        final boolean locationLatLonAvailable;
+        final double latitude;
+        final double longitude;
+        final boolean notificationsEnabled;
+        final long lastNotificationTimeInMillis;
+
+        Snapshot(Context context, SharedPreferences sp) {
+            preferredWeatherLocation = sp.getString(
+                    context.getString(R.string.pref_location_key),
+                    context.getString(R.string.pref_location_default));
+
+            String metricUnits = context.getString(R.string.pref_units_metric);
+            metric = metricUnits.equals(
+                    sp.getString(context.getString(R.string.pref_units_key), metricUnits));
+
+            locationLatLonAvailable = sp.contains(PREF_COORD_LAT) && sp.contains(PREF_COORD_LONG);
+            /*
+             * This is a hack we have to resort to since you can't store doubles in
+             * SharedPreferences.
+             *
+             * Double.doubleToLongBits returns an integer corresponding to the bits of the given
+             * IEEE 754 double precision value.
+             *
+             * Double.longBitsToDouble does the opposite, converting a long (that represents a
+             * double) into the double itself.
+             */
+            latitude = Double.longBitsToDouble(
+                    sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
+            longitude = Double.longBitsToDouble(
+                    sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
+
+            /*
+             * In Sunshine, the user has the ability to say whether she would like notifications
+             * enabled or not. If no preference has been chosen, we use the default in bools.xml.
+             */
+            notificationsEnabled = sp.getBoolean(
+                    context.getString(R.string.pref_enable_notifications_key),
+                    context.getResources().getBoolean(R.bool.show_notifications_by_default));
+
+            /*
+             * If there's no time for the last notification, it's 0, so the time since then is
+             * always more than a day and a notification will be shown.
+             */
+            lastNotificationTimeInMillis =
+                    sp.getLong(context.getString(R.string.pref_last_notification), 0);
+        }
+    }
+
+    /**
+     * Returns the snapshot of the preferences, reading them first if a preference has changed
+     * since it was last read.
+     */
+    private static Snapshot getSnapshot(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (sLock) {
+            snapshot = sSnapshot;
+            if (snapshot == null) {
+                SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+                if (!sListenerRegistered) {
+                    sp.registerOnSharedPreferenceChangeListener(sListener);
+                    sListenerRegistered = true;
+                }
+                snapshot = new Snapshot(context.getApplicationContext(), sp);
+                sSnapshot = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Throws the snapshot away, so the next read sees the latest preferences. The listener does
+     * this for every change, but it's called on the main thread some time after the change, so
+     * our own writes call this straight away as well. It waits for any snapshot being read, so
+     * one read from before the change can't be kept.
+     * <p>
+     * SharedPreferences calls its listeners in no particular order, so another listener that
+     * reads the preference that has just changed must call this first, or it may be given the
+     * old value.
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sSnapshot = null;
+        }
+    }
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
      * <p>
      * When the location details are updated, the database should to be cleared.
+     * <p>
+     * Every forecast that is parsed sets these, almost always to what they already are, so
+     * nothing is written unless they've changed.
      *
      * @param context  Context used to get the SharedPreferences
      * @param lat      the latitude of the city
      * @param lon      the longitude of the city
      */
     public static void setLocationDetails(Context context, double lat, double lon) {
+        Snapshot snapshot = getSnapshot(context);
+        long latBits = Double.doubleToRawLongBits(lat);
+        long lonBits = Double.doubleToRawLongBits(lon);
+        if (snapshot.locationLatLonAvailable
+                && Double.doubleToRawLongBits(snapshot.latitude) == latBits
+                && Double.doubleToRawLongBits(snapshot.longitude) == lonBits) {
+            return;
+        }
+
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
         SharedPreferences.Editor editor = sp.edit();
 
-        editor.putLong(PREF_COORD_LAT, Double.doubleToRawLongBits(lat));
-        editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
+        editor.putLong(PREF_COORD_LAT, latBits);
+        editor.putLong(PREF_COORD_LONG, lonBits);
         editor.apply();
+        invalidate();
     }
 
     /**
@@ -62,6 +199,7 @@ public final class SunshinePreferences {
         editor.remove(PREF_COORD_LAT);
         editor.remove(PREF_COORD_LONG);
         editor.apply();
+        invalidate();
     }
 
     /**
@@ -74,12 +212,7 @@ public final class SunshinePreferences {
      * "94043,USA" if SharedPreferences have not been implemented yet.
      */
     public static String getPreferredWeatherLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-
-        return sp.getString(keyForLocation, defaultLocation);
+        return getSnapshot(context).preferredWeatherLocation;
     }
 
     /**
@@ -89,19 +222,7 @@ public final class SunshinePreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForUnits = context.getString(R.string.pref_units_key);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = sp.getString(keyForUnits, defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-
-        boolean userPrefersMetric = false;
-        if (metric.equals(preferredUnits)) {
-            userPrefersMetric = true;
-        }
-
-        return userPrefersMetric;
+        return getSnapshot(context).metric;
     }
 
     /**
@@ -113,25 +234,8 @@ public final class SunshinePreferences {
      * @return an array containing the two coordinate values for the user's preferred location
      */
     public static double[] getLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        double[] preferredCoordinates = new double[2];
-
-        /*
-         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
-         *
-         * Double.doubleToLongBits returns an integer corresponding to the bits of the given
-         * IEEE 754 double precision value.
-         *
-         * Double.longBitsToDouble does the opposite, converting a long (that represents a double)
-         * into the double itself.
-         */
-        preferredCoordinates[0] = Double
-                 .longBitsToDouble(sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
-        preferredCoordinates[1] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
-
-        return preferredCoordinates;
+        Snapshot snapshot = getSnapshot(context);
+        return new double[]{snapshot.latitude, snapshot.longitude};
     }
 
     /**
@@ -142,17 +246,7 @@ public final class SunshinePreferences {
      * @return true if lat/long are saved in SharedPreferences
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean spContainLatitude = sp.contains(PREF_COORD_LAT);
-        boolean spContainLongitude = sp.contains(PREF_COORD_LONG);
-
-        boolean spContainBothLatitudeAndLongitude = false;
-        if (spContainLatitude && spContainLongitude) {
-            spContainBothLatitudeAndLongitude = true;
-        }
-
-        return spContainBothLatitudeAndLongitude;
+        return getSnapshot(context).locationLatLonAvailable;
     }
 
     /**
@@ -163,26 +257,7 @@ public final class SunshinePreferences {
      * @return true if the user prefers to see notifications, false otherwise
      */
     public static boolean areNotificationsEnabled(Context context) {
-        /* Key for accessing the preference for showing notifications */
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-
-        /*
-         * In Sunshine, the user has the ability to say whether she would like notifications
-         * enabled or not. If no preference has been chosen, we want to be able to determine
-         * whether or not to show them. To do this, we reference a bool stored in bools.xml.
-         */
-        boolean shouldDisplayNotificationsByDefault = context
-                .getResources()
-                .getBoolean(R.bool.show_notifications_by_default);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /* If a value is stored with the key, we extract it here. If not, use a default. */
-        boolean shouldDisplayNotifications = sp
-                .getBoolean(displayNotificationsKey, shouldDisplayNotificationsByDefault);
-
-        return shouldDisplayNotifications;
+        return getSnapshot(context).notificationsEnabled;
     }
 
     /**
@@ -192,25 +267,7 @@ public final class SunshinePreferences {
      * @return UNIX time of when the last notification was shown
      */
     public static long getLastNotificationTimeInMillis(Context context) {
-        /* Key for accessing the time at which Sunshine last displayed a notification */
-        String lastNotificationKey = context.getString(R.string.pref_last_notification);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /*
-         * Here, we retrieve the time in milliseconds when the last notification was shown. If
-         * SharedPreferences doesn't have a value for lastNotificationKey, we return 0. The reason
-         * we return 0 is because we compare the value returned from this method to the current
-         * system time. If the difference between the last notification time and the current time
-         * is greater than one day, we will show a notification again. When we compare the two
-         * values, we subtract the last notification time from the current system time. If the
-         * time of the last notification was 0, the difference will always be greater than the
-         * number of milliseconds in a day and we will show another notification.
-         */
-        long lastNotificationTime = sp.getLong(lastNotificationKey, 0);
-
-        return lastNotificationTime;
+        return getSnapshot(context).lastNotificationTimeInMillis;
     }
 
     /**
@@ -241,5 +298,6 @@ public final class SunshinePreferences {
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
+        invalidate();
     }
 }
\ No newline at end of file
@@ -56,6 +56,22 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to PATH_WEATHER, this path is used to hand the provider a complete, fresh forecast
+     * that it should merge into what it already has, rather than simply insert:
+     *
+     *     content://com.example.android.sunshine/weather/sync
+     */
+    public static final String PATH_SYNC = "sync";
+
+    /*
+     * Appended to PATH_WEATHER, this path is used to query the weather from today onwards, in
+     * date order, which is what the main list, the notification and the wearable all need:
+     *
+     *     content://com.example.android.sunshine/weather/upcoming
+     */
+    public static final String PATH_UPCOMING = "upcoming";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +80,28 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * The URI to bulkInsert a freshly downloaded forecast into. Instead of having to delete
+         * everything and insert it all again, which rewrites every row and notifies observers
+         * twice, the provider compares the new forecast with the one it already has, day by day.
+         * Only new days are inserted, only days whose weather changed are updated, and only days
+         * that are now in the past are deleted. Observers of CONTENT_URI are notified once, and
+         * only if something actually changed.
+         */
+        public static final Uri CONTENT_SYNC_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC)
+                .build();
+
+        /*
+         * The URI to query for the weather from today onwards. The provider works out what today
+         * is and binds it as an argument, so the SQL is the same every time and SQLite only has
+         * to compile it once. A selection passed with this URI narrows the days down further,
+         * and the rows are sorted by date unless a sort order is given.
+         */
+        public static final Uri CONTENT_UPCOMING_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_UPCOMING)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -123,16 +161,33 @@ public class WeatherContract {
                     .build();
         }
 
+        /*
+         * The selection for the weather from today onwards. Today's date is bound as its argument,
+         * see getSqlSelectArgsForTodayOnwards, rather than written into the SQL, so the text of the
+         * query never changes and SQLite can reuse the statement it compiled for it.
+         */
+        private static final String SQL_SELECT_TODAY_ONWARDS = COLUMN_DATE + " >= ?";
+
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Returns just the selection part of the weather query for today onwards. This is used to
+         * get a weather forecast from today's date. Today's date is left as a "?", so this must be
+         * used along with {@link #getSqlSelectArgsForTodayOnwards()}. Most queries can simply use
+         * {@link #CONTENT_UPCOMING_URI} instead.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return SQL_SELECT_TODAY_ONWARDS;
+        }
+
+        /**
+         * Returns the selection arguments that go with {@link #getSqlSelectForTodayOnwards()}.
+         *
+         * @return An array holding today's normalized UTC date
+         */
+        public static String[] getSqlSelectArgsForTodayOnwards() {
             long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
         }
     }
 }
\ No newline at end of file
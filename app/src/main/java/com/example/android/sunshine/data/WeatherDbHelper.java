@@ -15,9 +15,14 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
@@ -26,6 +31,8 @@ import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -42,13 +49,161 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Version 4 added INDEX_UPCOMING, and version 5 widened it to every column the app reads.
+     *
+     * Whenever you increment this, add a Migration to MIGRATIONS that takes the database from the
+     * previous version to the new one.
+     */
+    private static final int DATABASE_VERSION = 5;
+
+    /*
+     * The name of the index that covers the queries for the forecast from today onwards.
+     *
+     * The only index the weather table had was the one SQLite creates for UNIQUE(date). That
+     * finds the right days quickly, but every row it finds then has to be looked up in the table
+     * itself to get the rest of the weather. This index holds those columns as well, in date
+     * order, so the main list (MainActivity.MAIN_FORECAST_PROJECTION) and ForecastRepository's
+     * snapshot, which the notification and the watch are given, are read from the index alone,
+     * and already sorted. The _ID column doesn't need to be listed, as every index holds it
+     * anyway.
+     *
+     * The snapshot reads every other column, so the index holds all of them. The table only ever
+     * has a couple of weeks of weather, so that costs a few pages at most.
+     */
+    static final String INDEX_UPCOMING = "weather_upcoming_index";
+
+    static final String SQL_CREATE_UPCOMING_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_UPCOMING + " ON " + WeatherEntry.TABLE_NAME +
+            " (" +
+            WeatherEntry.COLUMN_DATE       + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP   + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP   + ", " +
+            WeatherEntry.COLUMN_HUMIDITY   + ", " +
+            WeatherEntry.COLUMN_PRESSURE   + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES    + ");";
+
+    /**
+     * One step in upgrading the database, from the version before toVersion to toVersion.
+     * <p>
+     * Steps should change the schema in place wherever they can, with ALTER TABLE, CREATE INDEX
+     * and so on, so the forecast already in the database is kept. For changes ALTER TABLE can't
+     * make, such as changing a column's type or constraints, use
+     * {@link #rebuildTable(SQLiteDatabase, String, String, String...)}. A step must spell out its
+     * own SQL rather than use the current CREATE TABLE statement, as that will change again in
+     * later versions.
+     */
+    abstract static class Migration {
+
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /*
+     * Every step there is, in order. A database older than the first step, or one with a version
+     * there is no step for, can't be migrated, and is simply created again from scratch.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final Migration[] MIGRATIONS = {
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_upcoming_index ON weather"
+                            + " (date, weather_id, max, min);");
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    /* An index's columns can't be changed, so it's dropped and created again */
+                    db.execSQL("DROP INDEX IF EXISTS weather_upcoming_index");
+                    db.execSQL("CREATE INDEX weather_upcoming_index ON weather"
+                            + " (date, weather_id, max, min, humidity, pressure, wind, degrees);");
+                }
+            },
+    };
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Called when the database connection is being configured, before onCreate, onUpgrade or
+     * onOpen. This is where write-ahead logging is turned on.
+     * <p>
+     * With the default rollback journal, SunshineSyncTask merging a new forecast locks the whole
+     * database for as long as its transaction lasts, so MainActivity's CursorLoader had to wait
+     * for the sync to finish before it could read anything. With write-ahead logging, new data
+     * is appended to a separate log and readers carry on reading the forecast as it was before
+     * the transaction started.
+     *
+     * @param db The database.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    /**
+     * onConfigure was only added in Jelly Bean, so before that the database is configured here,
+     * once it has been opened.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+    }
+
+    /**
+     * Turns on write-ahead logging, and with it synchronous = NORMAL: the log is only synced to
+     * disk when it is checkpointed, not on every commit. A power cut could lose the last sync,
+     * which is only a cache of the forecast and will be downloaded again, but can't corrupt the
+     * database.
+     * <p>
+     * PRAGMAs only apply to the connection they are run on, which here is the one that writes.
+     * That is all synchronous needs, as every write goes through it. Readers get connections of
+     * their own from SQLiteDatabase, which can't be configured, so PRAGMAs for reading, such as
+     * cache_size or temp_store, would never reach the queries they are meant for. The forecast's
+     * queries are covered by INDEX_UPCOMING instead, so they don't need a temporary sort at all.
+     */
+    private static void configure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA synchronous = NORMAL");
+    }
+
+    /**
+     * Copies what has been added to the write-ahead log back into the database, as far as it can
+     * without waiting for anyone who is reading. SQLite does this by itself once the log has
+     * grown to a certain size, but the sync is the only time we write a lot, so we do it straight
+     * afterwards to keep the log short, and the sync's changes in the database itself, rather
+     * than wait for the next sync to push it over that size. If write-ahead logging is off,
+     * this does nothing.
+     *
+     * @param db The database.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        /* The checkpoint returns a row with its results, so it can't be run with execSQL */
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                Log.d(TAG, "checkpoint: busy " + cursor.getInt(0) + ", log pages "
+                        + cursor.getInt(1) + ", checkpointed " + cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Called when the database is created for the first time. This is where the creation of
      * tables and the initial population of the tables should happen.
@@ -99,15 +254,25 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /* The index that lets the forecast be read without touching the table's rows */
+        sqLiteDatabase.execSQL(SQL_CREATE_UPCOMING_INDEX);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Upgrades the database one version at a time, using the steps in MIGRATIONS, so the forecast
+     * already on the device is kept. Before this, every change to the schema dropped the weather
+     * table and created it again, so every device showed an empty list after updating and went
+     * straight to the network for the whole forecast, all at the same time.
+     * <p>
+     * This database is only a cache for online data, though, so if there is no way to migrate
+     * from the old version, we fall back to discarding the data and calling through to onCreate
+     * to recreate the table. Note that this only fires if you change the version number for your
+     * database (in our case, DATABASE_VERSION). It does NOT depend on the version number for your
+     * application found in your app/build.gradle file.
+     * <p>
+     * SQLiteOpenHelper calls this inside a transaction, so if any step fails, none of them are
+     * kept.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +280,75 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (!migrate(sqLiteDatabase, oldVersion, newVersion, MIGRATIONS)) {
+            Log.w(TAG, "onUpgrade: can't migrate from version " + oldVersion + " to "
+                    + newVersion + ", creating the database again");
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Runs each step from oldVersion up to newVersion, in order, logging how long each one took.
+     *
+     * @param db         The database to upgrade
+     * @param oldVersion The version the database is at
+     * @param newVersion The version to upgrade it to
+     * @param migrations The steps, in order of version
+     * @return true if the database is now at newVersion, or false if a step was missing, in
+     * which case the database has to be created again
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion,
+                           Migration[] migrations) {
+        int version = oldVersion;
+        for (Migration migration : migrations) {
+            if (migration.toVersion <= version) {
+                continue;
+            }
+            if (migration.toVersion > newVersion || migration.toVersion != version + 1) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            migration.migrate(db);
+            version = migration.toVersion;
+            Log.d(TAG, "migrate: to version " + version + " in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        return version == newVersion;
+    }
+
+    /**
+     * Builds a new table with the given CREATE TABLE statement and copies every row of the old
+     * one into it, for the schema changes ALTER TABLE can't make. The old table's indexes are
+     * dropped along with it, so the step must create the ones its version needs afterwards.
+     *
+     * @param db             The database
+     * @param tableName      The table to rebuild
+     * @param createTableSql The statement that creates the new table, with the same name
+     * @param columns        The columns to copy, which both the old and new table must have
+     */
+    static void rebuildTable(SQLiteDatabase db, String tableName, String createTableSql,
+                             String... columns) {
+        String oldTableName = tableName + "_old";
+
+        /* Indexes keep their names when their table is renamed, which would clash with the new */
+        Cursor indexes = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+                + " AND tbl_name = ? AND sql IS NOT NULL", new String[]{tableName});
+        try {
+            while (indexes.moveToNext()) {
+                db.execSQL("DROP INDEX IF EXISTS " + indexes.getString(0));
+            }
+        } finally {
+            indexes.close();
+        }
+
+        db.execSQL("ALTER TABLE " + tableName + " RENAME TO " + oldTableName);
+        db.execSQL(createTableSql);
+
+        String columnList = TextUtils.join(", ", columns);
+        db.execSQL("INSERT INTO " + tableName + " (" + columnList + ")"
+                + " SELECT " + columnList + " FROM " + oldTableName);
+        db.execSQL("DROP TABLE " + oldTableName);
     }
-}
\ No newline at end of file
+}
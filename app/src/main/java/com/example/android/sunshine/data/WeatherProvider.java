@@ -20,21 +20,28 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, update data, and delete data. It can also merge a fresh forecast
+ * into the one it already has (see {@link WeatherContract.WeatherEntry#CONTENT_SYNC_URI}).
  * <p>
  * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * perform single inserts and the ability to get the type of the data from a URI. However, here,
+ * they are not implemented for the sake of brevity and simplicity. If you would like, you may
+ * implement them on your own. However, we are not going to be teaching how to do so in this
+ * course.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +52,8 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_SYNC = 102;
+    public static final int CODE_WEATHER_UPCOMING = 103;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +63,30 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * Counts the writes that changed the weather. It's moved on after each write and before its
+     * change is reported, so whoever reads it before querying knows which writes they have seen.
+     * See ForecastRepository.
+     */
+    private static final AtomicLong sWeatherVersion = new AtomicLong();
+
+    /*
+     * The columns of the weather table, in the order they are bound to the statement built by
+     * compileInsertStatement. The first two hold integers and the rest hold floats.
+     */
+    private static final String[] INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int INTEGER_COLUMN_COUNT = 2;
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +129,19 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * This URI is content://com.example.android.sunshine/weather/sync. As "sync" isn't a
+         * number, it can't be mistaken for a date.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_SYNC,
+                CODE_WEATHER_SYNC);
+
+        /* This URI is content://com.example.android.sunshine/weather/upcoming */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_UPCOMING,
+                CODE_WEATHER_UPCOMING);
+
         return matcher;
     }
 
@@ -145,37 +191,273 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+                int rowsInserted = bulkInsertWeather(db, values);
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyWeatherChanged(uri);
                 }
 
                 return rowsInserted;
 
+            /*
+             * A freshly downloaded forecast is merged into the weather table rather than simply
+             * inserted. The change is reported on CONTENT_URI, once, as that is the URI our
+             * CursorLoaders are watching.
+             */
+            case CODE_WEATHER_SYNC:
+                int rowsChanged = mergeForecast(db, values);
+
+                if (rowsChanged > 0) {
+                    notifyWeatherChanged(WeatherContract.WeatherEntry.CONTENT_URI);
+                    /* Our loaders can start reading while the log is checkpointed */
+                    WeatherDbHelper.checkpoint(db);
+                }
+
+                return rowsChanged;
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Inserts a set of rows into the weather table in a single transaction. Rather than calling
+     * SQLiteDatabase#insert for every row, which builds the same SQL again each time and passes
+     * the values through a map, the INSERT statement is compiled once and each row's values are
+     * bound to it directly.
+     *
+     * @param db     The database to write to
+     * @param values The rows to insert
+     * @return The number of rows that were inserted
+     */
+    static int bulkInsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insertStatement = compileInsertStatement(db);
+            try {
+                for (ContentValues value : values) {
+                    long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                        throw new IllegalArgumentException("Date must be normalized to insert");
+                    }
+
+                    long _id = insertWeather(db, insertStatement, value);
+                    if (_id != -1) {
+                        rowsInserted++;
+                    }
+                }
+            } finally {
+                insertStatement.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Compiles the statement that inserts a row into the weather table, replacing any row we
+     * already have for the same date. Compile it once per transaction and reuse it for every row
+     * with {@link #insertWeather(SQLiteDatabase, SQLiteStatement, ContentValues)}.
+     */
+    private static SQLiteStatement compileInsertStatement(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(INSERT_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(')');
+
+        return db.compileStatement(sql.toString());
+    }
+
+    /**
+     * Inserts a single row using a statement from {@link #compileInsertStatement(SQLiteDatabase)}.
+     * Like SQLiteDatabase#insert, a row that breaks a constraint (say, a missing value) isn't
+     * inserted, and -1 is returned for it.
+     *
+     * @return The row ID of the new row, or -1 if it couldn't be inserted
+     */
+    private static long insertWeather(SQLiteDatabase db, SQLiteStatement insertStatement,
+            ContentValues value) {
+
+        /*
+         * Values for columns the statement doesn't know about can only be inserted the slow way.
+         * That will fail, just as it always has, as the weather table has no such columns.
+         */
+        if (!hasOnlyInsertColumns(value)) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+        }
+
+        insertStatement.clearBindings();
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            /* SQLite's bind indices start at 1 */
+            int bindIndex = i + 1;
+            Object columnValue = value.get(INSERT_COLUMNS[i]);
+
+            if (columnValue == null) {
+                insertStatement.bindNull(bindIndex);
+            } else if (!(columnValue instanceof Number)) {
+                insertStatement.bindString(bindIndex, columnValue.toString());
+            } else if (i < INTEGER_COLUMN_COUNT) {
+                insertStatement.bindLong(bindIndex, ((Number) columnValue).longValue());
+            } else {
+                insertStatement.bindDouble(bindIndex, ((Number) columnValue).doubleValue());
+            }
+        }
+
+        try {
+            return insertStatement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    private static boolean hasOnlyInsertColumns(ContentValues value) {
+        for (String column : value.keySet()) {
+            boolean known = false;
+            for (String insertColumn : INSERT_COLUMNS) {
+                if (insertColumn.equals(column)) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges a complete forecast into the weather table, in a single transaction. Rows are
+     * matched up by their date:
+     * <p>
+     *   1) Days that are now in the past are deleted, as we have no use for them anymore.
+     * <p>
+     *   2) Days we don't have yet are inserted.
+     * <p>
+     *   3) Days we already have are only updated if any of their values changed. The weather
+     *    for a day often doesn't change from one sync to the next, and there's no point in
+     *    rewriting it.
+     * <p>
+     *   4) Days we have that aren't in the new forecast at all are deleted. That happens when the
+     *    location changes, or the server sends fewer days than last time, and those days would
+     *    otherwise keep showing weather that doesn't belong to this forecast.
+     *
+     * @param db     The database to write to
+     * @param values The forecast, one set of ContentValues per day
+     * @return The number of rows that were deleted, inserted or updated
+     */
+    private int mergeForecast(SQLiteDatabase db, ContentValues[] values) {
+        final String tableName = WeatherContract.WeatherEntry.TABLE_NAME;
+        final String dateColumn = WeatherContract.WeatherEntry.COLUMN_DATE;
+
+        /* Reused for every statement that only needs a date as its argument */
+        String[] dateArgument = new String[1];
+        int rowsChanged = 0;
+
+        db.beginTransaction();
+        try {
+            dateArgument[0] = Long.toString(SunshineDateUtils.getNormalizedUtcDateForToday());
+            rowsChanged += db.delete(tableName, dateColumn + " < ?", dateArgument);
+
+            SQLiteStatement insertStatement = compileInsertStatement(db);
+            Cursor existing = db.query(tableName, null, null, null, null, null, null);
+            try {
+                /* Where each day we already have can be found in the cursor */
+                LongSparseArray<Integer> positionsByDate =
+                        new LongSparseArray<>(existing.getCount());
+                int dateIndex = existing.getColumnIndexOrThrow(dateColumn);
+                while (existing.moveToNext()) {
+                    positionsByDate.put(existing.getLong(dateIndex), existing.getPosition());
+                }
+
+                /* Every day in the new forecast, so we can tell which of ours aren't */
+                LongSparseArray<Boolean> incomingDates = new LongSparseArray<>(values.length);
+
+                for (ContentValues value : values) {
+                    long weatherDate = value.getAsLong(dateColumn);
+                    if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                        throw new IllegalArgumentException("Date must be normalized to insert");
+                    }
+                    incomingDates.put(weatherDate, Boolean.TRUE);
+
+                    Integer position = positionsByDate.get(weatherDate);
+                    if (position == null) {
+                        if (insertWeather(db, insertStatement, value) != -1) {
+                            rowsChanged++;
+                        }
+                    } else {
+                        existing.moveToPosition(position);
+                        if (hasChanged(existing, value)) {
+                            dateArgument[0] = Long.toString(weatherDate);
+                            rowsChanged += db.update(tableName, value,
+                                    dateColumn + " = ?", dateArgument);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < positionsByDate.size(); i++) {
+                    long storedDate = positionsByDate.keyAt(i);
+                    if (incomingDates.get(storedDate) == null) {
+                        dateArgument[0] = Long.toString(storedDate);
+                        rowsChanged += db.delete(tableName, dateColumn + " = ?", dateArgument);
+                    }
+                }
+            } finally {
+                existing.close();
+                insertStatement.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsChanged;
+    }
+
+    /**
+     * Compares the values we were given for a day with the row we already have for it.
+     *
+     * @param row   A cursor positioned on the row we already have
+     * @param value The new values for that row
+     * @return true if any of the new values differ from the ones in the row
+     */
+    private static boolean hasChanged(Cursor row, ContentValues value) {
+        for (String column : value.keySet()) {
+            int index = row.getColumnIndex(column);
+            if (index == -1) {
+                /* Let the update tell the caller about the column that doesn't exist */
+                return true;
+            }
+
+            Object newValue = value.get(column);
+            if (newValue == null) {
+                if (!row.isNull(index)) return true;
+            } else if (row.isNull(index)) {
+                return true;
+            } else if (newValue instanceof Double || newValue instanceof Float) {
+                if (row.getDouble(index) != ((Number) newValue).doubleValue()) return true;
+            } else if (newValue instanceof Number) {
+                if (row.getLong(index) != ((Number) newValue).longValue()) return true;
+            } else if (!newValue.toString().equals(row.getString(index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -285,6 +567,20 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * When sUriMatcher's match method is called with a URI that looks like this
+             *
+             *      content://com.example.android.sunshine/weather/upcoming
+             *
+             * we return the weather from today onwards, sorted by date unless we're told otherwise.
+             */
+            case CODE_WEATHER_UPCOMING: {
+                cursor = queryUpcoming(mOpenHelper.getReadableDatabase(),
+                        projection, selection, selectionArgs, sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -293,6 +589,48 @@ public class WeatherProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Queries for the weather from today onwards.
+     * <p>
+     * Today's date is bound to the "?" in the selection instead of being written into the SQL.
+     * Each database connection keeps the statements it has compiled, keyed by their SQL, so as
+     * long as the SQL is the same, the statement is only compiled the first time this is called
+     * and reused after that. Writing the date into the SQL made it different every day, and
+     * meant it had to be compiled again whenever the cached statement had been pushed out.
+     *
+     * @param db            The database to query
+     * @param projection    The columns to put into the cursor, or null for all of them
+     * @param selection     An optional restriction on top of today onwards
+     * @param selectionArgs The arguments for the optional restriction
+     * @param sortOrder     How the rows should be sorted, or null to sort them by date
+     * @return A cursor over the weather from today onwards
+     */
+    static Cursor queryUpcoming(SQLiteDatabase db, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        String upcomingSelection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+        String[] upcomingSelectionArgs =
+                WeatherContract.WeatherEntry.getSqlSelectArgsForTodayOnwards();
+
+        if (selection != null) {
+            upcomingSelection = DatabaseUtils.concatenateWhere(upcomingSelection, selection);
+            upcomingSelectionArgs =
+                    DatabaseUtils.appendSelectionArgs(upcomingSelectionArgs, selectionArgs);
+        }
+
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
+        return db.query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                upcomingSelection,
+                upcomingSelectionArgs,
+                null,
+                null,
+                sortOrder);
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -332,7 +670,7 @@ public class WeatherProvider extends ContentProvider {
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyWeatherChanged(uri);
         }
 
         return numRowsDeleted;
@@ -370,9 +708,79 @@ public class WeatherProvider extends ContentProvider {
                 "We are not implementing insert in Sunshine. Use bulkInsert instead");
     }
 
+    /**
+     * Updates the rows at a given URI. For the weather on a particular day, the date in the URI
+     * picks the row to update and the selection is ignored.
+     *
+     * @param uri           The full URI to update
+     * @param values        The new values for the matching rows
+     * @param selection     An optional restriction to apply to rows when updating.
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+
+        int numRowsUpdated;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_WEATHER_WITH_DATE:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        values,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        new String[]{uri.getLastPathSegment()});
+
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        /*
+         * If we actually updated any rows, notify that a change has occurred. The change is
+         * reported on CONTENT_URI even for a single day: observers of a URI are told about changes
+         * to it and its ancestors, and a day's URI isn't an ancestor of CONTENT_UPCOMING_URI, which
+         * MainActivity's loader watches. The day's own observers are still told, as descendants
+         * of CONTENT_URI.
+         */
+        if (numRowsUpdated != 0) {
+            notifyWeatherChanged(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+
+        return numRowsUpdated;
+    }
+
+    /**
+     * Moves the weather version on, then tells everyone watching the URI that the weather has
+     * changed.
+     *
+     * @param uri The URI to notify
+     */
+    private void notifyWeatherChanged(Uri uri) {
+        sWeatherVersion.incrementAndGet();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Returns the number of writes that have changed the weather so far in this process. Read it
+     * before querying; if it hasn't moved on by the time a change is reported, the query already
+     * saw that change.
+     *
+     * @return The current weather version
+     */
+    static long getWeatherVersion() {
+        return sWeatherVersion.get();
     }
 
     /**
@@ -19,38 +19,23 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.IntentSender;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.content.CursorLoader;
 import android.text.format.DateUtils;
 import android.util.Log;
 
-import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.ForecastRepository;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastHttpCache;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import java.net.URL;
-import java.util.Calendar;
+import java.nio.ByteBuffer;
 
 public class SunshineSyncTask{
 
@@ -65,43 +50,8 @@ public class SunshineSyncTask{
      * @param context Used to access utility methods and the ContentResolver
      */
     synchronized public static void syncWeather(Context context) {
-        /** initializes the GoogleApiClient and connects it,
-         * does not do much on error handling, but just logs it,
-         * as this is mostly done in the background
-         */
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(@Nullable Bundle bundle) {
-                        Log.d(TAG, "onConnected: GoogleApiClient connected");
-                    }
-
-                    @Override
-                    public void onConnectionSuspended(int i) {
-
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-                        Log.d(TAG, "onConnectionFailed: GoogleApiClient failed");
-                    }
-                })
-                .build();
-        /** connects the GoogleApiClient to send dataItems */
-        googleApiClient.connect();
-
-        Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-                /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
-                 */
-        String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
+        /* The in-memory copy of the forecast that the rest of the sync reads from */
+        ForecastRepository forecastRepository = ForecastRepository.getInstance(context);
 
         try {
             /*
@@ -111,12 +61,37 @@ public class SunshineSyncTask{
              */
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /*
+             * Use the URL to retrieve the JSON. The response is read into a pooled buffer, so the
+             * connection is released before we parse, and no String copy of it is ever made. If
+             * the forecast hasn't changed since our last sync, the server doesn't send it again
+             * and we get null back.
+             */
+            ByteBuffer jsonWeatherResponse =
+                    NetworkUtils.getResponseBytesFromHttpUrl(context, weatherRequestUrl);
+
+            /*
+             * A 304 only tells us that the forecast we stored last time is still current, which
+             * is no help if it's no longer in the database (the database may have been upgraded,
+             * for example). In that case we parse our cached copy of the response instead.
+             */
+            if (jsonWeatherResponse == null && forecastRepository.getForecast().isEmpty()) {
+                jsonWeatherResponse = ForecastHttpCache.getCachedResponse(context);
+            }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * Parse the JSON into a list of weather values, straight from the response bytes. If
+             * our forecast is still current, there's nothing to parse, delete or insert.
+             */
+            ContentValues[] weatherValues = null;
+            if (jsonWeatherResponse != null) {
+                try {
+                    weatherValues = OpenWeatherJsonUtils
+                            .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+                } finally {
+                    NetworkUtils.recycleResponseBytes(jsonWeatherResponse);
+                }
+            }
 
             /*
              * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
@@ -125,20 +100,24 @@ public class SunshineSyncTask{
              * there isn't any to insert.
              */
             if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
+                /* Get a handle on the ContentResolver to merge in the new data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
+                /*
+                 * Merge our new weather data into Sunshine's ContentProvider. Only the days that
+                 * changed are written, days in the past are deleted, and the forecast list is
+                 * reloaded at most once.
+                 */
                 sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.CONTENT_SYNC_URI,
                         weatherValues);
 
+                /*
+                 * Load the merged forecast into memory, once, for the notification, the watch and
+                 * anyone else listening for new weather.
+                 */
+                forecastRepository.refresh();
+
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
@@ -176,64 +155,39 @@ public class SunshineSyncTask{
             e.printStackTrace();
         }
 
-        /* Query the database and update the dataItems*/
-        Cursor cursor = context.getContentResolver().query(forecastQueryUri,
-                MainActivity.MAIN_FORECAST_PROJECTION,
-                selection,
-                null,
-                sortOrder);
-        /** reads today's data from the cursor and sends that to the wear as DataItems*/
-        try {
-            if (cursor.moveToFirst()) {
-                String friendlyDate = SunshineDateUtils.getFriendlyDateString(context, cursor.getLong(MainActivity.INDEX_WEATHER_DATE), false);
-                String max = SunshineWeatherUtils.formatTemperature(context, cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP));
-                String min = SunshineWeatherUtils.formatTemperature(context, cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
-
-                int weatherIconId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
-                Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherIconId));
-                Asset imageAsset = MainActivity.createAssetFromBitmap(bitmap);
-                PutDataRequest request = sendWeatherWearData(imageAsset, min, max);
-
-                PendingResult<DataApi.DataItemResult> pendingResult =
-                        Wearable.DataApi.putDataItem(googleApiClient, request);
-
-                /** logs the status of the dataItems */
-                pendingResult
-                        .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                            @Override
-                            public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                                Log.d(TAG, "onResult: Image was successfully sent to wear: " + dataItemResult.getStatus());
-                            }
-                        });
-            }
-        } finally {
-            cursor.close(); //close the cursor to avoid memory leak
-        }
-        /** disconnects the GoogleApiClient */
-        if (googleApiClient.isConnected() && googleApiClient != null) {
-            googleApiClient.disconnect();
+        ForecastHttpCache.logStatistics();
+
+        /** reads today's data from the in-memory forecast and sends that to the wear as DataItems*/
+        ForecastRepository.Snapshot forecast = forecastRepository.getForecast();
+        int todayIndex = forecast.indexOfFirstDayFrom(
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        if (todayIndex != -1) {
+            //the watch formats the temperatures itself, in the units the user has chosen
+            double max = forecast.getMaxTemp(todayIndex);
+            double min = forecast.getMinTemp(todayIndex);
+
+            int weatherId = forecast.getWeatherId(todayIndex);
+            Log.d(TAG, "sendWeatherWearData: " + min + " : " + max);
+            byte[] packedForecast = WearForecastCodec.encode(forecast, todayIndex);
+            PutDataMapRequest request = SunshineWearUtils.createWeatherDataRequest(
+                    context, weatherId, min, max, packedForecast);
+
+            /**
+             * uses the app's one connection to the wear, which stays connected between syncs.
+             * We're on a background thread, so wait for it to connect here rather than writing
+             * before it has; if it can't connect, the write waits until it can. The sync may be
+             * gone before the publisher's burst window ends, so it publishes straight away; it is
+             * still only sent if the weather has changed since it was last sent.
+             */
+            WearableConnectionManager wearConnection =
+                    WearableConnectionManager.getInstance(context);
+            wearConnection.connect();
+            WearDataPublisher.getInstance(context).publishNow(request);
+            //in case the units were changed before the watch could be told, or by an older version
+            wearConnection.putDataItem(SunshineWearUtils.createUnitsDataRequest(context, false));
+            wearConnection.logStatistics();
         }
 
     }
 
-    /**
-     * Helper method to load the request for Data Items
-     * @param asset
-     * @param minTemp
-     * @param maxTemp
-     * @return
-     */
-    private static PutDataRequest sendWeatherWearData( Asset asset, String minTemp, String maxTemp){
-        Log.d(TAG, "sendWeatherWearData: " + minTemp + " : " + maxTemp);
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(MainActivity.WEATHER_WEAR_PATH);
-        putDataMapRequest.getDataMap().putAsset(MainActivity.WEATHER_IMAGE_KEY, asset);
-        putDataMapRequest.getDataMap().putString(MainActivity.WEATHER_MAX_KEY, maxTemp);
-        putDataMapRequest.getDataMap().putString(MainActivity.WEATHER_MIN_KEY, minTemp);
-        putDataMapRequest.getDataMap().putString(MainActivity.TIME_KEY, Calendar.getInstance().getTime().toString());
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-        request.setUrgent();
-        return request;
-
-    }
-
 }
\ No newline at end of file
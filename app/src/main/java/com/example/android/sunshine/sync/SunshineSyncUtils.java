@@ -132,8 +132,8 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /* URI for the weather from today onwards */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_UPCOMING_URI;
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
@@ -142,14 +142,12 @@ public class SunshineSyncUtils {
                  * to determine what weather details need to be displayed.
                  */
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
-                        selectionStatement,
+                        null,
                         null,
                         null);
                 /*
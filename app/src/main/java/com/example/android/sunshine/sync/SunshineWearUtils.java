@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+/**
+ * Builds the DataItems that carry today's weather to the watch face.
+ * <p>
+ * There are two ways of telling the watch which icon to show:
+ * <ul>
+ *     <li>The compact way, which is the default, sends only the weather condition id. The watch
+ *     bundles the same icons as this app and picks the right one itself, so nothing has to be
+ *     PNG encoded here, sent as an Asset, fetched by the watch and decoded again.</li>
+ *     <li>The asset way sends the icon itself as a PNG Asset, which is what the watch face used
+ *     to get. It's kept for watch faces that were built before they had their own icons. Each
+ *     icon is only encoded once, and only sent once; after that, only its hash is sent, along
+ *     with the weather id in case the watch has lost its copy. See {@link WearIconCache}.</li>
+ * </ul>
+ * The watch face understands both: if there's an Asset or a hash of one it already has, it uses
+ * that, otherwise it uses the weather id.
+ */
+public final class SunshineWearUtils {
+
+    /*
+     * Whether to send the icon as a PNG Asset rather than just the weather id. Only needed for
+     * watch faces that don't have their own icons yet.
+     */
+    private static final boolean SEND_ICON_ASSET = false;
+
+    /*
+     * The keys whose values the watch face actually draws. When only other keys change, the
+     * update is sent without waking the watch up. See {@link WearDataPublisher}.
+     */
+    static final String[] DISPLAYED_KEYS = {
+            MainActivity.WEATHER_ID_KEY,
+            MainActivity.WEATHER_IMAGE_HASH_KEY,
+            MainActivity.WEATHER_IMAGE_KEY,
+            MainActivity.WEATHER_MAX_KEY,
+            MainActivity.WEATHER_MIN_KEY
+    };
+
+    private SunshineWearUtils() {
+    }
+
+    /**
+     * Builds the request that puts today's weather on the watch. TIME_KEY and urgency are left
+     * to {@link WearDataPublisher}, which knows whether anything has changed.
+     *
+     * @param context   Used to load the icon, if it's sent as an Asset
+     * @param weatherId The OpenWeatherMap weather condition id for today
+     * @param minTemp   Today's low, in Celsius
+     * @param maxTemp   Today's high, in Celsius
+     * @param forecast  The days from today onwards, packed by {@link WearForecastCodec}, or null
+     * @return The request to pass to {@link WearDataPublisher}
+     */
+    public static PutDataMapRequest createWeatherDataRequest(Context context, int weatherId,
+                                                          double minTemp, double maxTemp,
+                                                          byte[] forecast) {
+        PutDataMapRequest putDataMapRequest =
+                PutDataMapRequest.create(MainActivity.WEATHER_WEAR_PATH);
+        DataMap dataMap = putDataMapRequest.getDataMap();
+
+        if (SEND_ICON_ASSET) {
+            int iconId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+            WearIconCache.Icon icon = WearIconCache.getIcon(context, iconId);
+            dataMap.putString(MainActivity.WEATHER_IMAGE_HASH_KEY, icon.hash);
+            if (WearIconCache.isSent(context, icon.hash)) {
+                /* The watch already has this icon, so the hash is enough */
+                dataMap.putInt(MainActivity.WEATHER_ID_KEY, weatherId);
+            } else {
+                dataMap.putAsset(MainActivity.WEATHER_IMAGE_KEY, Asset.createFromBytes(icon.png));
+            }
+            WearIconCache.logStatistics();
+        } else {
+            dataMap.putInt(MainActivity.WEATHER_ID_KEY, weatherId);
+        }
+
+        /* Hundredths of a degree Celsius; the watch converts and formats them itself */
+        dataMap.putInt(MainActivity.WEATHER_MAX_KEY, WearForecastCodec.toCentiDegrees(maxTemp));
+        dataMap.putInt(MainActivity.WEATHER_MIN_KEY, WearForecastCodec.toCentiDegrees(minTemp));
+        if (forecast != null) {
+            /* Only shown when the user taps through the days, so not one of DISPLAYED_KEYS */
+            dataMap.putByteArray(MainActivity.WEATHER_FORECAST_KEY, forecast);
+        }
+        return putDataMapRequest;
+    }
+
+    /**
+     * Builds the request that tells the watch which units the user wants temperatures in. The
+     * weather itself is always sent in Celsius, so this is all the watch needs to switch units.
+     *
+     * @param context Used to read the preference
+     * @param urgent  Whether to deliver it straight away, for when the user has just changed it
+     * @return The request to pass to {@link WearableConnectionManager#putDataItem}
+     */
+    public static PutDataRequest createUnitsDataRequest(Context context, boolean urgent) {
+        PutDataMapRequest putDataMapRequest =
+                PutDataMapRequest.create(MainActivity.SETTINGS_WEAR_PATH);
+        putDataMapRequest.getDataMap()
+                .putBoolean(MainActivity.METRIC_KEY, SunshinePreferences.isMetric(context));
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+        if (urgent) {
+            request.setUrgent();
+        }
+        return request;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends today's weather to the watch, but only when it has actually changed.
+ * <p>
+ * Both MainActivity and the sync used to send the weather every time they had it, with a new
+ * TIME_KEY and setUrgent() every time, so the watch was woken up to be told the same thing over
+ * and over, for example on every load of MainActivity. This publisher:
+ * <ul>
+ *     <li>fingerprints everything in the DataMap except TIME_KEY, and drops anything whose
+ *     fingerprint matches what was last sent. The fingerprint is kept in SharedPreferences, so
+ *     this works across processes too. It's only saved once Play Services has stored the
+ *     DataItem, so an update that was lost on the way, for example because the connection
+ *     failed or the process died while it was queued, is sent again next time.</li>
+ *     <li>waits for a short window after a {@link #publish(PutDataMapRequest)}, so that a burst of
+ *     updates (MainActivity's loader can finish several times in a row) is sent once, as the
+ *     newest update.</li>
+ *     <li>only asks for urgent delivery if a value the watch face actually shows has changed.
+ *     Anything else is sent without waking the watch up.</li>
+ * </ul>
+ */
+public final class WearDataPublisher {
+
+    private static final String TAG = WearDataPublisher.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* How long to wait for more updates before sending, by default */
+    private static final long DEFAULT_BURST_WINDOW_MILLIS = 2000;
+
+    /* The fingerprints of what was last sent are kept in their own preferences file */
+    private static final String PREFERENCES_NAME = "wear_data_publisher";
+    private static final String PREF_PAYLOAD_FINGERPRINT = "payload_fingerprint";
+    private static final String PREF_DISPLAYED_FINGERPRINT = "displayed_fingerprint";
+
+    private static final Object sLock = new Object();
+    private static WearDataPublisher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    private final Runnable mSendPending = new Runnable() {
+        @Override
+        public void run() {
+            sendPending();
+        }
+    };
+
+    /* Guarded by this */
+    private long mBurstWindowMillis = DEFAULT_BURST_WINDOW_MILLIS;
+    private PutDataMapRequest mPending;
+
+    /* Metrics, guarded by this */
+    private int mPublishedCount;
+    private int mSentCount;
+    private int mUrgentCount;
+    private int mUnchangedCount;
+    private int mCoalescedCount;
+
+    private WearDataPublisher(Context context) {
+        mContext = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the publisher for this process.
+     *
+     * @param context Any context; only the application context is kept
+     * @return The one and only WearDataPublisher
+     */
+    public static WearDataPublisher getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new WearDataPublisher(context);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Sets how long to wait after {@link #publish(PutDataMapRequest)} for more updates.
+     *
+     * @param burstWindowMillis The window, in milliseconds; 0 sends without waiting
+     */
+    public synchronized void setBurstWindowMillis(long burstWindowMillis) {
+        mBurstWindowMillis = burstWindowMillis;
+    }
+
+    /**
+     * Sends the DataItem once the burst window has passed, unless a newer one is published in
+     * the meantime, in which case only the newer one is sent. Doesn't block.
+     *
+     * @param request The DataItem, without TIME_KEY; that is added when it's sent
+     */
+    public void publish(PutDataMapRequest request) {
+        synchronized (this) {
+            mPublishedCount++;
+            if (mPending != null) {
+                mCoalescedCount++;
+                mPending = request;
+                /* The window is already running, and this will be sent when it ends */
+                return;
+            }
+            mPending = request;
+        }
+        mHandler.postDelayed(mSendPending, mBurstWindowMillis);
+    }
+
+    /**
+     * Sends the DataItem straight away on the calling thread, along with anything waiting for
+     * the burst window, which it replaces. For callers that may not be around when the window
+     * ends, such as the sync.
+     *
+     * @param request The DataItem, without TIME_KEY; that is added when it's sent
+     */
+    public void publishNow(PutDataMapRequest request) {
+        synchronized (this) {
+            mPublishedCount++;
+            if (mPending != null) {
+                mCoalescedCount++;
+                mHandler.removeCallbacks(mSendPending);
+            }
+            mPending = request;
+        }
+        sendPending();
+    }
+
+    private void sendPending() {
+        PutDataMapRequest request;
+        synchronized (this) {
+            request = mPending;
+            mPending = null;
+        }
+        if (request != null) {
+            send(request);
+        }
+    }
+
+    /**
+     * Compares the DataItem with what was last sent, and sends it if it's different.
+     */
+    private synchronized void send(PutDataMapRequest putDataMapRequest) {
+        DataMap dataMap = putDataMapRequest.getDataMap();
+        final String payloadFingerprint = fingerprint(dataMap, null);
+        final String displayedFingerprint =
+                fingerprint(dataMap, SunshineWearUtils.DISPLAYED_KEYS);
+
+        SharedPreferences preferences =
+                mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        if (payloadFingerprint.equals(preferences.getString(PREF_PAYLOAD_FINGERPRINT, null))) {
+            mUnchangedCount++;
+            Log.d(TAG, "send: the watch already has this weather, not sending it again");
+            return;
+        }
+        boolean urgent = !displayedFingerprint.equals(
+                preferences.getString(PREF_DISPLAYED_FINGERPRINT, null));
+
+        /* The time makes sure the watch hears about it even if an older copy is still around */
+        dataMap.putString(MainActivity.TIME_KEY, Calendar.getInstance().getTime().toString());
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+        if (urgent) {
+            request.setUrgent();
+            mUrgentCount++;
+        }
+        mSentCount++;
+
+        /* If the icon itself is in this update, the watch has it once the update is stored */
+        final String iconHash = dataMap.containsKey(MainActivity.WEATHER_IMAGE_KEY)
+                ? dataMap.getString(MainActivity.WEATHER_IMAGE_HASH_KEY)
+                : null;
+
+        WearableConnectionManager.getInstance(mContext).putDataItem(request,
+                new WearableConnectionManager.OnDataItemPutListener() {
+                    @Override
+                    public void onDataItemPut(boolean success) {
+                        if (success) {
+                            onSent(payloadFingerprint, displayedFingerprint, iconHash);
+                        } else {
+                            Log.d(TAG, "send: the weather didn't reach the watch, it will be"
+                                    + " sent again next time");
+                        }
+                    }
+                });
+        logStatistics();
+    }
+
+    /**
+     * Remembers what the watch has now been sent, so the same update isn't sent again.
+     */
+    private synchronized void onSent(String payloadFingerprint, String displayedFingerprint,
+                                     String iconHash) {
+        mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_PAYLOAD_FINGERPRINT, payloadFingerprint)
+                .putString(PREF_DISPLAYED_FINGERPRINT, displayedFingerprint)
+                .apply();
+        if (iconHash != null) {
+            WearIconCache.markSent(mContext, iconHash);
+        }
+    }
+
+    /**
+     * Forgets what was last sent, so the next update is sent whatever it is.
+     */
+    public synchronized void reset() {
+        mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .clear()
+                .apply();
+    }
+
+    /* How many updates were published */
+    public synchronized int getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    /* How many updates were sent to the watch */
+    public synchronized int getSentCount() {
+        return mSentCount;
+    }
+
+    /* How many of the updates sent were urgent */
+    public synchronized int getUrgentCount() {
+        return mUrgentCount;
+    }
+
+    /* How many updates weren't sent because the watch already had them */
+    public synchronized int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    /* How many updates were replaced by a newer one within the burst window */
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized void logStatistics() {
+        Log.d(TAG, "Published " + mPublishedCount + ", sent " + mSentCount
+                + " (" + mUrgentCount + " urgent), unchanged " + mUnchangedCount
+                + ", coalesced " + mCoalescedCount);
+    }
+
+    /**
+     * Hashes the keys and values in a DataMap, in order of key so that the order they were put
+     * in doesn't matter. TIME_KEY is always left out.
+     *
+     * @param dataMap The DataMap to fingerprint
+     * @param keys    The keys to include, or null for all of them
+     * @return The SHA-1 hash of the keys and values, as hex
+     */
+    static String fingerprint(DataMap dataMap, String[] keys) {
+        List<String> sortedKeys = new ArrayList<>();
+        if (keys == null) {
+            sortedKeys.addAll(dataMap.keySet());
+        } else {
+            for (String key : keys) {
+                if (dataMap.containsKey(key)) {
+                    sortedKeys.add(key);
+                }
+            }
+        }
+        sortedKeys.remove(MainActivity.TIME_KEY);
+        Collections.sort(sortedKeys);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device has SHA-1 */
+            throw new IllegalStateException(e);
+        }
+
+        for (String key : sortedKeys) {
+            digest.update(key.getBytes(UTF_8));
+            digest.update((byte) 0);
+            Object value = dataMap.get(key);
+            if (value instanceof byte[]) {
+                digest.update((byte[]) value);
+            } else if (value instanceof Asset) {
+                Asset asset = (Asset) value;
+                if (asset.getData() != null) {
+                    digest.update(asset.getData());
+                } else if (asset.getDigest() != null) {
+                    digest.update(asset.getDigest().getBytes(UTF_8));
+                }
+            } else {
+                digest.update(String.valueOf(value).getBytes(UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
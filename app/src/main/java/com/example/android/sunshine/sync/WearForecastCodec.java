@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.ForecastRepository;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the whole forecast into one byte array, so it can be sent to the watch as a single
+ * DataMap field rather than a handful of String keys for every day.
+ * <p>
+ * The format is a 4 byte header followed by one fixed size record per day, big endian:
+ * <pre>
+ *     header: byte version, byte flags, short number of days
+ *     day:    int epoch day, short weather id, short max temp, short min temp
+ * </pre>
+ * The epoch day is the number of days since January 1st 1970 of the normalized UTC date used in
+ * the database. Temperatures are in hundredths of a degree Celsius, whatever units the user has
+ * chosen; the units are sent to the watch separately, see
+ * {@link SunshineWearUtils#createUnitsDataRequest}, so that changing them doesn't change this.
+ * No flags are defined yet, so the flags byte is always 0. 14 days fit in 144 bytes.
+ * <p>
+ * The watch face has its own copy of the decoding side of this, which must be kept in step.
+ */
+public final class WearForecastCodec {
+
+    /* Bump this whenever the layout changes; the watch ignores versions it doesn't know */
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_SIZE = 4;
+    public static final int RECORD_SIZE = 10;
+
+    /* The most days sent, which is as many as NetworkUtils asks the server for */
+    public static final int MAX_DAYS = 14;
+
+    private WearForecastCodec() {
+    }
+
+    /**
+     * Packs the forecast from the given day onwards.
+     *
+     * @param forecast The forecast
+     * @param from     The index of the first day to send, usually today
+     * @return The packed forecast
+     */
+    public static byte[] encode(ForecastRepository.Snapshot forecast, int from) {
+        int count = Math.max(0, Math.min(forecast.size() - from, MAX_DAYS));
+        ByteBuffer buffer = allocate(count);
+        for (int i = from; i < from + count; i++) {
+            putDay(buffer, forecast.getDate(i), forecast.getWeatherId(i),
+                    forecast.getMaxTemp(i), forecast.getMinTemp(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Packs the forecast from the first row of a cursor onwards. The cursor is left wherever the
+     * last row read left it.
+     *
+     * @param cursor          The forecast, in date order
+     * @param dateColumn      The index of the date column
+     * @param weatherIdColumn The index of the weather id column
+     * @param maxColumn       The index of the max temperature column
+     * @param minColumn       The index of the min temperature column
+     * @return The packed forecast
+     */
+    public static byte[] encode(Cursor cursor, int dateColumn, int weatherIdColumn,
+                                int maxColumn, int minColumn) {
+        int count = Math.min(cursor.getCount(), MAX_DAYS);
+        ByteBuffer buffer = allocate(count);
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            putDay(buffer, cursor.getLong(dateColumn), cursor.getInt(weatherIdColumn),
+                    cursor.getDouble(maxColumn), cursor.getDouble(minColumn));
+        }
+        return buffer.array();
+    }
+
+    private static ByteBuffer allocate(int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE);
+        buffer.put(VERSION);
+        buffer.put((byte) 0);
+        buffer.putShort((short) count);
+        return buffer;
+    }
+
+    private static void putDay(ByteBuffer buffer, long normalizedDate, int weatherId,
+                               double maxTemp, double minTemp) {
+        buffer.putInt((int) (normalizedDate / SunshineDateUtils.DAY_IN_MILLIS));
+        buffer.putShort((short) weatherId);
+        buffer.putShort(toCentiDegrees(maxTemp));
+        buffer.putShort(toCentiDegrees(minTemp));
+    }
+
+    /**
+     * Converts a temperature to hundredths of a degree, which fits in a short for anything
+     * between -327 and 327 degrees.
+     */
+    static short toCentiDegrees(double temperature) {
+        long centi = Math.round(temperature * 100);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, centi));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the PNG encoded weather icons that are sent to the watch face as Assets, and remembers
+ * which of them the watch already has.
+ * <p>
+ * There are only a handful of small weather icons, but without this cache every sync and every
+ * time MainActivity loads, one of them was decoded and PNG encoded again, and sent to the watch
+ * again, only for the watch to decode it again. Now each icon is encoded once per process and
+ * identified by a hash of its PNG bytes. Once an update carrying an icon has been stored, its hash
+ * is remembered, and from then on only the hash is sent; the watch keeps its own copy of every
+ * icon it has been sent, keyed by the same hash.
+ * <p>
+ * This only matters when icons are sent as Assets at all; see {@link SunshineWearUtils}.
+ */
+public final class WearIconCache {
+
+    private static final String TAG = WearIconCache.class.getSimpleName();
+
+    /* The hashes of the icons the watch has been sent are kept in their own preferences file */
+    private static final String PREFERENCES_NAME = "wear_icon_cache";
+    private static final String PREF_KNOWN_HASHES = "known_hashes";
+
+    /**
+     * One PNG encoded icon and the hash that identifies it.
+     */
+    public static final class Icon {
+        public final String hash;
+        public final byte[] png;
+
+        private Icon(String hash, byte[] png) {
+            this.hash = hash;
+            this.png = png;
+        }
+    }
+
+    /* Encoded icons, keyed by the resource id from getSmallArtResourceIdForWeatherCondition */
+    private static final SparseArray<Icon> sIcons = new SparseArray<>();
+
+    /* The hashes the watch has been sent, loaded from the preferences when first needed */
+    private static Set<String> sKnownHashes;
+
+    private static final AtomicLong sEncodeHits = new AtomicLong();
+    private static final AtomicLong sEncodeMisses = new AtomicLong();
+    private static final AtomicLong sAssetsSkipped = new AtomicLong();
+    private static final AtomicLong sAssetsSent = new AtomicLong();
+
+    private WearIconCache() {
+    }
+
+    /**
+     * Returns the PNG encoded icon for a resource, encoding it only the first time it's asked for.
+     *
+     * @param context    Used to load the icon
+     * @param resourceId The icon's resource id, from getSmallArtResourceIdForWeatherCondition
+     * @return The encoded icon and its hash
+     */
+    public static synchronized Icon getIcon(Context context, int resourceId) {
+        Icon icon = sIcons.get(resourceId);
+        if (icon != null) {
+            sEncodeHits.incrementAndGet();
+            return icon;
+        }
+        sEncodeMisses.incrementAndGet();
+
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        bitmap.recycle();
+
+        byte[] png = byteStream.toByteArray();
+        icon = new Icon(hash(png), png);
+        sIcons.put(resourceId, icon);
+        return icon;
+    }
+
+    /**
+     * Whether the watch has already been sent the icon with this hash, so only the hash has to be
+     * sent this time. This doesn't remember the icon as sent: it keeps returning false until
+     * {@link #markSent} is called, once the update carrying the icon has been stored.
+     *
+     * @param context Used to read the hashes the watch has been sent
+     * @param hash    The icon's hash
+     * @return true if only the hash needs to be sent, false if the icon itself does
+     */
+    public static synchronized boolean isSent(Context context, String hash) {
+        if (getKnownHashes(context).contains(hash)) {
+            sAssetsSkipped.incrementAndGet();
+            return true;
+        }
+        sAssetsSent.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Remembers that the watch has the icon with this hash. Only call this once the DataItem
+     * carrying the icon has been stored; if it was lost, the icon has to be sent again.
+     *
+     * @param context Used to write the hashes the watch has been sent
+     * @param hash    The icon's hash
+     */
+    public static synchronized void markSent(Context context, String hash) {
+        if (!getKnownHashes(context).add(hash)) {
+            return;
+        }
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putStringSet(PREF_KNOWN_HASHES, new HashSet<>(sKnownHashes))
+                .apply();
+    }
+
+    /**
+     * Forgets which icons the watch has been sent, so that each is sent again the next time it's
+     * needed. Useful if the watch has lost its copies, for example after being reset.
+     *
+     * @param context Used to clear the hashes the watch has been sent
+     */
+    public static synchronized void clearSentIcons(Context context) {
+        sKnownHashes = new HashSet<>();
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .remove(PREF_KNOWN_HASHES)
+                .apply();
+    }
+
+    /* Loads the hashes the watch has been sent the first time they're needed */
+    private static Set<String> getKnownHashes(Context context) {
+        if (sKnownHashes == null) {
+            SharedPreferences preferences =
+                    context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            /* The set returned by getStringSet must not be modified, so take a copy */
+            sKnownHashes = new HashSet<>(
+                    preferences.getStringSet(PREF_KNOWN_HASHES, new HashSet<String>()));
+        }
+        return sKnownHashes;
+    }
+
+    /* How many times an icon was already encoded */
+    public static long getEncodeHitCount() {
+        return sEncodeHits.get();
+    }
+
+    /* How many times an icon had to be encoded */
+    public static long getEncodeMissCount() {
+        return sEncodeMisses.get();
+    }
+
+    /* How many times only the hash was sent, because the watch already had the icon */
+    public static long getAssetsSkippedCount() {
+        return sAssetsSkipped.get();
+    }
+
+    /* How many times the icon itself was sent */
+    public static long getAssetsSentCount() {
+        return sAssetsSent.get();
+    }
+
+    public static void logStatistics() {
+        Log.d(TAG, "Icons encoded: " + sEncodeMisses.get()
+                + ", reused: " + sEncodeHits.get()
+                + ". Assets sent: " + sAssetsSent.get()
+                + ", skipped: " + sAssetsSkipped.get());
+    }
+
+    /**
+     * Hashes the PNG bytes with SHA-1 and returns the hash as a hex String. This only identifies
+     * content, so SHA-1 is more than strong enough, and the hex String is safe to use as a file
+     * name on the watch.
+     */
+    static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device has SHA-1 */
+            throw new IllegalStateException(e);
+        }
+    }
+}
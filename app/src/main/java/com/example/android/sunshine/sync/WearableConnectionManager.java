@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the one GoogleApiClient that the whole app uses to talk to the watch.
+ * <p>
+ * The sync used to build and connect a new client every time it ran, never waited for it to
+ * connect before writing (so the write could be lost), and disconnected it again straight after.
+ * MainActivity had a client of its own as well. Now there is one client for the process, which
+ * stays connected once it has connected, so later writes don't pay for connecting again.
+ * <p>
+ * Writes made while the client isn't connected are queued and sent as soon as it connects. Only
+ * the newest write for each path is kept, as a DataItem replaces the one before it at the same
+ * path anyway; older ones are counted as dropped, as are writes that Play Services rejects. A
+ * caller that needs to know whether its write made it, for example to avoid sending it again,
+ * can pass an {@link OnDataItemPutListener}.
+ */
+public final class WearableConnectionManager implements
+        GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String TAG = WearableConnectionManager.class.getSimpleName();
+
+    /**
+     * Told whether a write was stored by Play Services, which then delivers it to the watch
+     * whenever it's in reach. It is never called for a write that was still queued when the
+     * process died, so a caller that only remembers what it sent once this is called will send
+     * it again.
+     */
+    public interface OnDataItemPutListener {
+        /**
+         * @param success false if Play Services rejected the write, or it was replaced by a
+         *                newer write to the same path before it could be sent
+         */
+        void onDataItemPut(boolean success);
+    }
+
+    /* A queued write, and who to tell how it went */
+    private static final class PendingWrite {
+        final PutDataRequest request;
+        final OnDataItemPutListener listener;
+
+        PendingWrite(PutDataRequest request, OnDataItemPutListener listener) {
+            this.request = request;
+            this.listener = listener;
+        }
+    }
+
+    /* How long connect() waits for the client to connect before giving up */
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    private static final Object sLock = new Object();
+    private static WearableConnectionManager sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    /* Writes waiting for the client to connect, keyed by path. Guarded by this. */
+    private final LinkedHashMap<String, PendingWrite> mPendingWrites = new LinkedHashMap<>();
+
+    /* When the current connection attempt started, or 0 if there isn't one. Guarded by this. */
+    private long mConnectStartNanos;
+
+    /*
+     * Whether the current connection has been recorded and the writes waiting for it sent.
+     * connect() and Play Services' callbacks both report the same connection, and only the first
+     * of them should count. Guarded by this.
+     */
+    private boolean mConnectionHandled;
+
+    /* Metrics, guarded by this */
+    private int mConnectCount;
+    private int mFailedConnectCount;
+    private long mTotalConnectLatencyNanos;
+    private long mMaxConnectLatencyNanos;
+    private int mWriteCount;
+    private int mQueuedWriteCount;
+    private int mDroppedWriteCount;
+
+    private WearableConnectionManager(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * Returns the connection manager for this process.
+     *
+     * @param context Any context; only the application context is kept
+     * @return The one and only WearableConnectionManager
+     */
+    public static WearableConnectionManager getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new WearableConnectionManager(context);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Connects the client if it isn't connected already, waiting up to CONNECT_TIMEOUT_SECONDS
+     * for it to connect. Any writes waiting for the connection are sent before this returns. This
+     * blocks, so it must not be called on the main thread.
+     *
+     * @return true if the client is connected
+     */
+    public boolean connect() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("connect() must not be called on the main thread");
+        }
+        if (mGoogleApiClient.isConnected()) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (mConnectStartNanos == 0) {
+                mConnectStartNanos = System.nanoTime();
+            }
+        }
+
+        ConnectionResult result =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (result.isSuccess()) {
+            /*
+             * onConnected is called on the main thread, which may not have happened yet, so
+             * record the connection and send the waiting writes from here as well. Whichever of
+             * the two comes second does nothing.
+             */
+            handleConnected();
+            return true;
+        }
+
+        handleConnectionFailed(result);
+        return false;
+    }
+
+    /**
+     * Writes a DataItem. If the client is connected, it is written straight away; otherwise it
+     * is queued, replacing any write queued for the same path, and a connection is started. This
+     * doesn't block, so it can be called from any thread.
+     *
+     * @param request The DataItem to write
+     */
+    public void putDataItem(PutDataRequest request) {
+        putDataItem(request, null);
+    }
+
+    /**
+     * Writes a DataItem, like {@link #putDataItem(PutDataRequest)}, and says how it went.
+     *
+     * @param request  The DataItem to write
+     * @param listener Told whether the write was stored, or null
+     */
+    public void putDataItem(PutDataRequest request, OnDataItemPutListener listener) {
+        if (mGoogleApiClient.isConnected()) {
+            send(request, listener);
+            return;
+        }
+
+        PendingWrite replaced;
+        synchronized (this) {
+            replaced = mPendingWrites.put(request.getUri().getPath(),
+                    new PendingWrite(request, listener));
+            mQueuedWriteCount++;
+            if (replaced != null) {
+                mDroppedWriteCount++;
+            }
+            if (mConnectStartNanos == 0) {
+                mConnectStartNanos = System.nanoTime();
+            }
+        }
+        if (replaced != null && replaced.listener != null) {
+            replaced.listener.onDataItemPut(false);
+        }
+
+        /* Does nothing if the client is already connecting */
+        mGoogleApiClient.connect();
+
+        /* The client may have connected, and sent what was waiting, just before we queued this */
+        if (mGoogleApiClient.isConnected()) {
+            sendPendingWrites();
+        }
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle bundle) {
+        handleConnected();
+    }
+
+    /**
+     * The client will try to connect again by itself, so there's nothing to do here but note
+     * that the next connection is a new one
+     */
+    @Override
+    public void onConnectionSuspended(int i) {
+        synchronized (this) {
+            mConnectionHandled = false;
+        }
+        Log.d(TAG, "onConnectionSuspended: " + i);
+    }
+
+    /**
+     * The waiting writes are kept, and sent the next time a connection is made
+     */
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        handleConnectionFailed(connectionResult);
+    }
+
+    /**
+     * Records how long the connection took and sends the writes that were waiting for it, once
+     * per connection, however many times it's reported.
+     */
+    private void handleConnected() {
+        synchronized (this) {
+            if (mConnectionHandled) {
+                return;
+            }
+            mConnectionHandled = true;
+            if (mConnectStartNanos != 0) {
+                long latency = System.nanoTime() - mConnectStartNanos;
+                mConnectStartNanos = 0;
+                mConnectCount++;
+                mTotalConnectLatencyNanos += latency;
+                mMaxConnectLatencyNanos = Math.max(mMaxConnectLatencyNanos, latency);
+                Log.d(TAG, "onConnected: connected in "
+                        + TimeUnit.NANOSECONDS.toMillis(latency) + "ms");
+            }
+        }
+        sendPendingWrites();
+    }
+
+    /**
+     * Records a failed connection attempt, once per attempt, however many times it's reported.
+     */
+    private void handleConnectionFailed(ConnectionResult connectionResult) {
+        synchronized (this) {
+            mConnectionHandled = false;
+            if (mConnectStartNanos == 0) {
+                /* This attempt's failure has been recorded already */
+                return;
+            }
+            mConnectStartNanos = 0;
+            mFailedConnectCount++;
+        }
+        Log.d(TAG, "onConnectionFailed: " + connectionResult.getErrorMessage());
+    }
+
+    private void sendPendingWrites() {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(mPendingWrites.values());
+            mPendingWrites.clear();
+        }
+
+        for (PendingWrite write : writes) {
+            send(write.request, write.listener);
+        }
+    }
+
+    private void send(PutDataRequest request, final OnDataItemPutListener listener) {
+        synchronized (this) {
+            mWriteCount++;
+        }
+        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                        Log.d(TAG, "onResult: DataItem sent to wear: "
+                                + dataItemResult.getStatus());
+                        boolean success = dataItemResult.getStatus().isSuccess();
+                        if (!success) {
+                            synchronized (WearableConnectionManager.this) {
+                                mDroppedWriteCount++;
+                            }
+                        }
+                        if (listener != null) {
+                            listener.onDataItemPut(success);
+                        }
+                    }
+                });
+    }
+
+    /* How many times the client has connected */
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    /* How many connection attempts have failed or timed out */
+    public synchronized int getFailedConnectCount() {
+        return mFailedConnectCount;
+    }
+
+    /* The average time it took to connect, in milliseconds */
+    public synchronized long getAverageConnectLatencyMillis() {
+        return mConnectCount == 0
+                ? 0
+                : TimeUnit.NANOSECONDS.toMillis(mTotalConnectLatencyNanos / mConnectCount);
+    }
+
+    /* The longest it has taken to connect, in milliseconds */
+    public synchronized long getMaxConnectLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxConnectLatencyNanos);
+    }
+
+    /* How many writes were replaced by a newer write before they could be sent, or failed */
+    public synchronized int getDroppedWriteCount() {
+        return mDroppedWriteCount;
+    }
+
+    /* How many writes had to wait for a connection */
+    public synchronized int getQueuedWriteCount() {
+        return mQueuedWriteCount;
+    }
+
+    /* How many writes were sent */
+    public synchronized int getWriteCount() {
+        return mWriteCount;
+    }
+
+    public synchronized void logStatistics() {
+        Log.d(TAG, "Connected " + mConnectCount + " times (failed " + mFailedConnectCount
+                + "), average " + getAverageConnectLatencyMillis() + "ms, worst "
+                + getMaxConnectLatencyMillis() + "ms. Writes sent: " + mWriteCount
+                + ", queued: " + mQueuedWriteCount + ", dropped: " + mDroppedWriteCount);
+    }
+}
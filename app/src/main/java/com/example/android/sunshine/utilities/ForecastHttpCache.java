@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tiny on-disk cache for the last forecast response. Along with the body of the response, we
+ * keep the ETag and Last-Modified headers the server sent with it. The next time we ask for the
+ * same URL, NetworkUtils sends those back as If-None-Match and If-Modified-Since, and if the
+ * forecast hasn't changed, the server answers with a 304 Not Modified and no body at all.
+ * <p>
+ * Only one response is ever cached, as Sunshine only ever asks for the forecast of one location.
+ * If the location changes, so does the URL, and the old validators are simply not used.
+ */
+public final class ForecastHttpCache {
+
+    private static final String TAG = ForecastHttpCache.class.getSimpleName();
+
+    /* The cache lives in its own folder in the app's cache directory */
+    private static final String CACHE_DIRECTORY = "forecast";
+
+    private static final String BODY_FILE = "response.json";
+    private static final String VALIDATORS_FILE = "validators";
+
+    /* Bump this if the layout of the validators file changes, so old files are ignored */
+    private static final int VALIDATORS_VERSION = 2;
+
+    /*
+     * These count how often the server told us our copy was still good, and how many bytes we
+     * didn't have to download as a result. The bytes are counted as they came over the network,
+     * so a compressed response counts as its compressed length; what it decompressed to, which
+     * is what had to be parsed, is counted separately.
+     */
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+    private static final AtomicLong sBytesSaved = new AtomicLong();
+    private static final AtomicLong sBytesDownloaded = new AtomicLong();
+    private static final AtomicLong sBytesDecompressed = new AtomicLong();
+
+    private ForecastHttpCache() {
+    }
+
+    /**
+     * The validators the server sent with the cached response.
+     */
+    static final class Validators {
+        /* Either of these may be null, but not both */
+        final String eTag;
+        final String lastModified;
+
+        /* The length of the cached body, after it was decompressed */
+        final int bodyLength;
+
+        /* How many bytes the cached body took to download, which is what a 304 saves us */
+        final int downloadedLength;
+
+        Validators(String eTag, String lastModified, int bodyLength, int downloadedLength) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.bodyLength = bodyLength;
+            this.downloadedLength = downloadedLength;
+        }
+    }
+
+    /**
+     * Returns the validators for the cached response to the given URL.
+     *
+     * @param context Used to find the cache directory
+     * @param url     The URL we are about to request
+     * @return The validators, or null if we have no cached response for this URL
+     */
+    static Validators getValidators(Context context, URL url) {
+        File validatorsFile = new File(getCacheDirectory(context), VALIDATORS_FILE);
+        if (!validatorsFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(validatorsFile));
+            if (in.readInt() != VALIDATORS_VERSION) {
+                return null;
+            }
+
+            String cachedUrl = in.readUTF();
+            String eTag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+            int bodyLength = in.readInt();
+            int downloadedLength = in.readInt();
+
+            /* Validators for another location tell us nothing about this one */
+            if (!cachedUrl.equals(url.toString())) {
+                return null;
+            }
+
+            /* Without the body, the validators are no use to us */
+            if (new File(getCacheDirectory(context), BODY_FILE).length() != bodyLength) {
+                return null;
+            }
+
+            return new Validators(eTag, lastModified, bodyLength, downloadedLength);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the cached forecast validators", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores a fresh response along with its validators. If the server didn't send either an
+     * ETag or a Last-Modified header, there's nothing to validate a cached copy with, so the
+     * cache is cleared instead.
+     *
+     * @param context          Used to find the cache directory
+     * @param url              The URL the response came from
+     * @param eTag             The ETag header of the response, or null
+     * @param lastModified     The Last-Modified header of the response, or null
+     * @param body             The body of the response. Its position and limit are left
+     *                         untouched.
+     * @param downloadedLength How many bytes the body took to download, before decompressing
+     */
+    static void put(Context context, URL url, String eTag, String lastModified, ByteBuffer body,
+                    int downloadedLength) {
+        if (eTag == null && lastModified == null) {
+            clear(context);
+            return;
+        }
+
+        File directory = getCacheDirectory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Couldn't create the forecast cache directory");
+            return;
+        }
+
+        /*
+         * The validators are removed first and written last, so that if we're interrupted part
+         * way through, we never send validators for a body we don't have.
+         */
+        File validatorsFile = new File(directory, VALIDATORS_FILE);
+        validatorsFile.delete();
+
+        FileOutputStream bodyOut = null;
+        DataOutputStream validatorsOut = null;
+        try {
+            bodyOut = new FileOutputStream(new File(directory, BODY_FILE));
+            bodyOut.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            bodyOut.close();
+            bodyOut = null;
+
+            validatorsOut = new DataOutputStream(new FileOutputStream(validatorsFile));
+            validatorsOut.writeInt(VALIDATORS_VERSION);
+            validatorsOut.writeUTF(url.toString());
+            validatorsOut.writeUTF(eTag == null ? "" : eTag);
+            validatorsOut.writeUTF(lastModified == null ? "" : lastModified);
+            validatorsOut.writeInt(body.remaining());
+            validatorsOut.writeInt(downloadedLength);
+            validatorsOut.close();
+            validatorsOut = null;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't cache the forecast response", e);
+            clear(context);
+        } finally {
+            closeQuietly(bodyOut);
+            closeQuietly(validatorsOut);
+        }
+    }
+
+    /**
+     * Reads the body of the cached response. This is for when the server tells us the forecast
+     * hasn't changed, but we no longer have it in the database, for example because the database
+     * was upgraded.
+     * <p>
+     * Once you are done with the response, hand it back with
+     * {@link NetworkUtils#recycleResponseBytes(ByteBuffer)}.
+     *
+     * @param context Used to find the cache directory
+     * @return A view of the cached response, or null if there isn't one
+     */
+    public static ByteBuffer getCachedResponse(Context context) {
+        File bodyFile = new File(getCacheDirectory(context), BODY_FILE);
+        if (!bodyFile.exists()) {
+            return null;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(bodyFile);
+            return NetworkUtils.readResponse(in, (int) bodyFile.length());
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the cached forecast response", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Removes the cached response, so the next request downloads the whole forecast again.
+     *
+     * @param context Used to find the cache directory
+     */
+    public static void clear(Context context) {
+        File directory = getCacheDirectory(context);
+        new File(directory, VALIDATORS_FILE).delete();
+        new File(directory, BODY_FILE).delete();
+    }
+
+    /**
+     * Records a 304 Not Modified response.
+     *
+     * @param bytesSaved The number of bytes the cached response took to download
+     */
+    static void recordHit(long bytesSaved) {
+        sHitCount.incrementAndGet();
+        sBytesSaved.addAndGet(bytesSaved);
+    }
+
+    /**
+     * Records a response that had to be downloaded in full.
+     *
+     * @param bytesDownloaded   The number of bytes of the body that came over the network
+     * @param bytesDecompressed The length of the body once it was decompressed
+     */
+    static void recordMiss(long bytesDownloaded, long bytesDecompressed) {
+        sMissCount.incrementAndGet();
+        sBytesDownloaded.addAndGet(bytesDownloaded);
+        sBytesDecompressed.addAndGet(bytesDecompressed);
+    }
+
+    /* The number of requests the server answered with a 304 since the process started */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /* The number of requests that downloaded the whole forecast since the process started */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /* The number of response bytes 304s have saved us from downloading */
+    public static long getBytesSaved() {
+        return sBytesSaved.get();
+    }
+
+    /* The number of response bytes we have downloaded, as they came over the network */
+    public static long getBytesDownloaded() {
+        return sBytesDownloaded.get();
+    }
+
+    /* The number of bytes the responses we downloaded decompressed to, which had to be parsed */
+    public static long getBytesDecompressed() {
+        return sBytesDecompressed.get();
+    }
+
+    /**
+     * Writes the hit and miss counts to logcat.
+     */
+    public static void logStatistics() {
+        Log.d(TAG, "Forecast cache: " + getHitCount() + " hits, " + getMissCount() + " misses, "
+                + getBytesSaved() + " bytes saved, " + getBytesDownloaded() + " bytes downloaded, "
+                + getBytesDecompressed() + " bytes decompressed");
+    }
+
+    private static File getCacheDirectory(Context context) {
+        return new File(context.getCacheDir(), CACHE_DIRECTORY);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                /* There's nothing useful we can do about this */
+            }
+        }
+    }
+}
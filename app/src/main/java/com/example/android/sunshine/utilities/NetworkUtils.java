@@ -21,12 +21,19 @@ import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +90,41 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /* The headers used to ask the server whether our cached forecast is still current */
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /* The compressed encodings we ask for, and the ones we know how to decode */
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+    private static final String IDENTITY = "identity";
+
+    /* Compressed bytes are read from the network in chunks of this size while decompressing */
+    private static final int DECOMPRESSION_BUFFER_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * Responses are read into byte arrays that we keep around and reuse from one sync to the
+     * next, rather than letting a Scanner grow (and throw away) several buffers for every
+     * response. If the server tells us how long the response is, the buffer is sized to fit.
+     * Otherwise we start with a buffer big enough for a typical 14 day forecast and grow it if we
+     * have to.
+     */
+    private static final int DEFAULT_RESPONSE_BUFFER_SIZE = 16 * 1024;
+
+    /* Buffers larger than this are left for the garbage collector rather than being pooled */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    /* Sunshine only ever has one or two requests in flight, so there's no need for a big pool */
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private static final ArrayDeque<byte[]> sResponseBufferPool = new ArrayDeque<>();
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -169,22 +211,314 @@ public final class NetworkUtils {
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        ByteBuffer response = getResponseBytesFromHttpUrl(url);
         try {
-            InputStream in = urlConnection.getInputStream();
+            if (!response.hasRemaining()) {
+                return null;
+            }
+            return new String(response.array(), response.arrayOffset() + response.position(),
+                    response.remaining(), UTF_8);
+        } finally {
+            recycleResponseBytes(response);
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * This method returns the entire result from the HTTP response as raw bytes, without turning
+     * it into a String. The bytes live in a pooled buffer, and the returned ByteBuffer is a view
+     * of just the part of that buffer holding the response. Once you are done with the response,
+     * hand it back with {@link #recycleResponseBytes(ByteBuffer)} so the next request can reuse
+     * the buffer.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return A view of the bytes of the HTTP response, which is empty if there was no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static ByteBuffer getResponseBytesFromHttpUrl(URL url) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
+        try {
+            return readResponseBody(urlConnection,
+                    new CountingInputStream(urlConnection.getInputStream()));
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    /**
+     * Like {@link #getResponseBytesFromHttpUrl(URL)}, but makes a conditional request using the
+     * validators of the last response we cached for this URL. If the server says nothing has
+     * changed since then (304 Not Modified), no body is downloaded and this method returns null,
+     * which means the forecast we already have is still current. Fresh responses are written to
+     * the {@link ForecastHttpCache} for next time.
+     *
+     * @param context Used to access the forecast cache
+     * @param url     The URL to fetch the HTTP response from.
+     * @return A view of the bytes of the HTTP response, or null if our copy is still current
+     * @throws IOException Related to network and stream reading
+     */
+    public static ByteBuffer getResponseBytesFromHttpUrl(Context context, URL url)
+            throws IOException {
+        ForecastHttpCache.Validators validators = ForecastHttpCache.getValidators(context, url);
+
+        HttpURLConnection urlConnection = openConnection(url);
+        try {
+            if (validators != null) {
+                if (validators.eTag != null) {
+                    urlConnection.setRequestProperty(IF_NONE_MATCH, validators.eTag);
+                }
+                if (validators.lastModified != null) {
+                    urlConnection.setRequestProperty(IF_MODIFIED_SINCE, validators.lastModified);
+                }
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                ForecastHttpCache.recordHit(validators.downloadedLength);
+                return null;
+            }
+
+            /* Counted before decompressing, so compressed responses count what they really cost */
+            CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+            ByteBuffer response = readResponseBody(urlConnection, wire);
+
+            ForecastHttpCache.recordMiss(wire.getCount(), response.remaining());
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                ForecastHttpCache.put(context, url,
+                        urlConnection.getHeaderField(ETAG),
+                        urlConnection.getHeaderField(LAST_MODIFIED),
+                        response,
+                        (int) wire.getCount());
             }
-            scanner.close();
             return response;
         } finally {
             urlConnection.disconnect();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Opens a connection that asks the server for a compressed response. Forecast JSON is very
+     * repetitive and shrinks to a fraction of its size, which matters a lot on metered cellular
+     * connections.
+     * <p>
+     * Note that because we set Accept-Encoding ourselves, HttpURLConnection leaves the response
+     * exactly as the server sent it, and it's up to us to decompress it. See
+     * {@link #readResponseBody(HttpURLConnection)}.
+     */
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestProperty(ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+        return urlConnection;
+    }
+
+    /**
+     * Reads the body of a response into a pooled buffer, decompressing it on the fly if the
+     * server compressed it. The compressed bytes are never held in memory as a whole; they are
+     * inflated as they arrive, straight into the buffer the parser will read from.
+     *
+     * @param urlConnection A connection opened with {@link #openConnection(URL)}
+     * @param wire          The connection's input stream, which counts the bytes read from it
+     * @return A view of the decompressed bytes of the response
+     * @throws IOException Related to network and stream reading, or a corrupt compressed body
+     */
+    private static ByteBuffer readResponseBody(HttpURLConnection urlConnection,
+                                               CountingInputStream wire) throws IOException {
+        String contentEncoding = urlConnection.getContentEncoding();
+        InputStream in = wire;
+
+        /*
+         * getContentLength returns -1 when the server doesn't send the header. When the body is
+         * compressed, the header is the compressed length, which tells us nothing about how big
+         * the buffer for the decompressed body needs to be.
+         */
+        int contentLength = -1;
+
+        /* Unlike GZIPInputStream, InflaterInputStream won't free an Inflater it was given */
+        Inflater inflater = null;
+
+        if (contentEncoding == null || IDENTITY.equalsIgnoreCase(contentEncoding)) {
+            contentLength = urlConnection.getContentLength();
+        } else if (GZIP.equalsIgnoreCase(contentEncoding)
+                || X_GZIP.equalsIgnoreCase(contentEncoding)) {
+            in = new GZIPInputStream(in, DECOMPRESSION_BUFFER_SIZE);
+        } else if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            /*
+             * "deflate" is meant to be zlib wrapped, but plenty of servers send the raw deflate
+             * stream instead, which Inflater only accepts if it's told not to expect the wrapper.
+             */
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            inflater = new Inflater(!isZlibWrapped(pushback));
+            in = new InflaterInputStream(pushback, inflater, DECOMPRESSION_BUFFER_SIZE);
+        } else {
+            in.close();
+            throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+
+        try {
+            return readResponse(in, contentLength);
+        } finally {
+            in.close();
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Peeks at the first two bytes of a stream to see if they are a zlib header: a CMF byte
+     * whose low four bits say the data is deflated, and a FLG byte that makes the pair a
+     * multiple of 31. The bytes are pushed back, so the stream is left as it was.
+     */
+    static boolean isZlibWrapped(PushbackInputStream in) throws IOException {
+        byte[] header = new byte[2];
+        int length = 0;
+        while (length < header.length) {
+            int read = in.read(header, length, header.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        in.unread(header, 0, length);
+
+        if (length < header.length) {
+            return false;
+        }
+        int cmf = header[0] & 0xff;
+        int flg = header[1] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Counts the bytes read through it, so that the bytes of a response that came over the
+     * network can be told apart from the bytes they decompressed to.
+     */
+    static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /* The number of bytes read or skipped so far */
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Returns the buffer behind a response from {@link #getResponseBytesFromHttpUrl(URL)} to the
+     * pool. The ByteBuffer must not be used after this method has been called.
+     *
+     * @param response The response to recycle
+     */
+    public static void recycleResponseBytes(ByteBuffer response) {
+        if (response != null && response.hasArray()) {
+            releaseBuffer(response.array());
+        }
+    }
+
+    /**
+     * Reads a stream to the end into a pooled buffer.
+     *
+     * @param in            The stream to read
+     * @param contentLength The length of the stream, if known, or -1 if it isn't
+     * @return A view of the bytes that were read
+     * @throws IOException Related to stream reading
+     */
+    static ByteBuffer readResponse(InputStream in, int contentLength) throws IOException {
+        /*
+         * Content-Length is only what the server claims. A wrong or hostile header could ask us
+         * for a gigabyte before a single byte has arrived, so the first buffer is never bigger
+         * than one we'd pool, and a longer body grows the buffer as it actually arrives.
+         */
+        byte[] buffer = obtainBuffer(contentLength > 0
+                ? Math.min(contentLength, MAX_POOLED_BUFFER_SIZE)
+                : DEFAULT_RESPONSE_BUFFER_SIZE);
+        int length = 0;
+
+        while (true) {
+            if (length == buffer.length) {
+                /*
+                 * The buffer is full. If the server sent an accurate Content-Length, this is the
+                 * end of the stream, and a single read is enough to find that out without
+                 * growing the buffer.
+                 */
+                int nextByte = in.read();
+                if (nextByte == -1) {
+                    break;
+                }
+
+                byte[] grown = obtainBuffer(buffer.length * 2);
+                System.arraycopy(buffer, 0, grown, 0, length);
+                releaseBuffer(buffer);
+                buffer = grown;
+                buffer[length++] = (byte) nextByte;
+            }
+
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    /**
+     * Takes a buffer of at least the requested size out of the pool, or allocates a new one if
+     * none of the pooled buffers are big enough.
+     */
+    private static byte[] obtainBuffer(int minimumSize) {
+        synchronized (sResponseBufferPool) {
+            for (byte[] buffer : sResponseBufferPool) {
+                if (buffer.length >= minimumSize) {
+                    sResponseBufferPool.remove(buffer);
+                    return buffer;
+                }
+            }
+        }
+        return new byte[minimumSize];
+    }
+
+    /**
+     * Puts a buffer back into the pool, unless it is too big to keep around or the pool is full.
+     */
+    private static void releaseBuffer(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        synchronized (sResponseBufferPool) {
+            if (sResponseBufferPool.size() < MAX_POOLED_BUFFERS
+                    && !sResponseBufferPool.contains(buffer)) {
+                sResponseBufferPool.push(buffer);
+            }
+        }
+    }
+}
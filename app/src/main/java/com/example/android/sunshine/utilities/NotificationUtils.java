@@ -5,7 +5,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -15,30 +14,12 @@ import android.support.v4.content.ContextCompat;
 
 import com.example.android.sunshine.DetailActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastRepository;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
 public class NotificationUtils {
 
-    /*
-     * The columns of data that we are interested in displaying within our notification to let
-     * the user know there is new weather data available.
-     */
-    public static final String[] WEATHER_NOTIFICATION_PROJECTION = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-    };
-
-    /*
-     * We store the indices of the values in the array of Strings above to more quickly be able
-     * to access the data from our query. If the order of the Strings above changes, these
-     * indices must be adjusted to match the order of the Strings.
-     */
-    public static final int INDEX_WEATHER_ID = 0;
-    public static final int INDEX_MAX_TEMP = 1;
-    public static final int INDEX_MIN_TEMP = 2;
-
     /*
      * This notification ID can be used to access our notification after we've displayed it. This
      * can be handy when we need to cancel the notification, or perhaps update it. This number is
@@ -49,35 +30,30 @@ public class NotificationUtils {
     /**
      * Constructs and displays a notification for the newly updated weather for today.
      *
-     * @param context Context used to query our ContentProvider and use various Utility methods
+     * @param context Context used to read the forecast and use various Utility methods
      */
     public static void notifyUserOfNewWeather(Context context) {
 
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
         /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(today);
 
         /*
-         * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
-         * class and is used to limit the columns returned in our cursor.
+         * The sync that calls this method has just refreshed the ForecastRepository, so there's
+         * no need to query the ContentProvider for today's weather again.
          */
-        Cursor todayWeatherCursor = context.getContentResolver().query(
-                todaysWeatherUri,
-                WEATHER_NOTIFICATION_PROJECTION,
-                null,
-                null,
-                null);
+        ForecastRepository.Snapshot forecast = ForecastRepository.getInstance(context)
+                .getForecast();
+        int todayIndex = forecast.indexOfDate(today);
 
-        /*
-         * If todayWeatherCursor is empty, moveToFirst will return false. If our cursor is not
-         * empty, we want to show the notification.
-         */
-        if (todayWeatherCursor.moveToFirst()) {
+        /* If we don't have today's weather, there's nothing to tell the user about */
+        if (todayIndex != -1) {
 
             /* Weather ID as returned by API, used to identify the icon to be used */
-            int weatherId = todayWeatherCursor.getInt(INDEX_WEATHER_ID);
-            double high = todayWeatherCursor.getDouble(INDEX_MAX_TEMP);
-            double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
+            int weatherId = forecast.getWeatherId(todayIndex);
+            double high = forecast.getMaxTemp(todayIndex);
+            double low = forecast.getMinTemp(todayIndex);
 
             Resources resources = context.getResources();
             int largeArtResourceId = SunshineWeatherUtils
@@ -136,9 +112,6 @@ public class NotificationUtils {
              */
             SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
         }
-
-        /* Always close your cursor when you're done with it to avoid wasting resources. */
-        todayWeatherCursor.close();
     }
 
     /**
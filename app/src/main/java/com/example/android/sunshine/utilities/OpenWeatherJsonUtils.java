@@ -17,6 +17,7 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
@@ -25,7 +26,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -60,6 +68,20 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * The streaming parser keeps track of which values of a day it has seen with these bits. A
+     * day is only complete (and only turned into ContentValues) once every bit is set, which
+     * mirrors the tree parser throwing a JSONException for any missing value.
+     */
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WIND_SPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_WEATHER_ID = 1 << 4;
+    private static final int DAY_MAX = 1 << 5;
+    private static final int DAY_MIN = 1 << 6;
+    private static final int DAY_COMPLETE = (1 << 7) - 1;
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +203,246 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Instead
+     * of building a JSONObject tree for the whole response, this pulls tokens straight off the
+     * stream (for example, the InputStream of an HttpURLConnection) and emits the ContentValues
+     * for a day as soon as that day's object has been read. Only one day's values are ever held
+     * in local variables at a time.
+     * <p>
+     * The ContentValues produced are identical to the ones the tree parser produces for the same
+     * JSON, including returning null when the server sent back an error code.
+     *
+     * @param context        Used to save the location details of the forecast
+     * @param forecastStream JSON response from the server, encoded as UTF-8. This stream is closed
+     *                       once the response has been read.
+     *
+     * @return Array of ContentValues, one for each day of the forecast
+     *
+     * @throws IOException   If the stream cannot be read or does not contain valid JSON
+     * @throws JSONException If the JSON is missing any of the values we need
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(Context context,
+            InputStream forecastStream) throws IOException, JSONException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(forecastStream, "UTF-8"));
+        try {
+            return readForecast(context, reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses a forecast response that has already been read into memory, such as the one returned
+     * from {@link NetworkUtils#getResponseBytesFromHttpUrl(java.net.URL)}. The bytes are parsed in
+     * place by the streaming parser, so no intermediate String is ever built. The ByteBuffer's
+     * position and limit are left untouched.
+     *
+     * @param context          Used to save the location details of the forecast
+     * @param forecastResponse View of the UTF-8 encoded JSON response from the server
+     *
+     * @return Array of ContentValues, one for each day of the forecast
+     *
+     * @throws IOException   If the response does not contain valid JSON
+     * @throws JSONException If the JSON is missing any of the values we need
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(Context context,
+            ByteBuffer forecastResponse) throws IOException, JSONException {
+
+        return getWeatherContentValuesFromJson(context, new ByteArrayInputStream(
+                forecastResponse.array(),
+                forecastResponse.arrayOffset() + forecastResponse.position(),
+                forecastResponse.remaining()));
+    }
+
+    /**
+     * Reads the top level forecast object. Unlike the tree parser, we can't look up the error
+     * code before anything else, as the server is free to send "cod" after "list". Instead, we
+     * remember it and decide what to return once the whole object has been read.
+     */
+    private static ContentValues[] readForecast(Context context, JsonReader reader)
+            throws IOException, JSONException {
+
+        int errorCode = HttpURLConnection.HTTP_OK;
+
+        List<ContentValues> weatherContentValues = null;
+
+        boolean hasCityCoordinates = false;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+
+        /* See getWeatherContentValuesFromJson(Context, String) for why we ignore the JSON dates */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                errorCode = reader.nextInt();
+
+            } else if (OWM_LIST.equals(name)) {
+                weatherContentValues = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long dateTimeMillis = normalizedUtcStartDay
+                            + SunshineDateUtils.DAY_IN_MILLIS * weatherContentValues.size();
+                    weatherContentValues.add(readDay(reader, dateTimeMillis));
+                }
+                reader.endArray();
+
+            } else if (OWM_CITY.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (OWM_COORD.equals(reader.nextName())) {
+                        int found = 0;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String coordName = reader.nextName();
+                            if (OWM_LATITUDE.equals(coordName)) {
+                                cityLatitude = reader.nextDouble();
+                                found |= 1;
+                            } else if (OWM_LONGITUDE.equals(coordName)) {
+                                cityLongitude = reader.nextDouble();
+                                found |= 2;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        hasCityCoordinates = found == 3;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        /* Is there an error? Location invalid (404) or server probably down (anything else) */
+        if (errorCode != HttpURLConnection.HTTP_OK) {
+            return null;
+        }
+
+        if (weatherContentValues == null) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+
+        if (!hasCityCoordinates) {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+
+        SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+
+        return weatherContentValues.toArray(new ContentValues[weatherContentValues.size()]);
+    }
+
+    /**
+     * Reads a single day's forecast object and turns it into ContentValues.
+     *
+     * @param reader         JsonReader positioned at the start of the day's object
+     * @param dateTimeMillis Normalized UTC date for this day
+     * @return ContentValues for the day, in the same form as the tree parser builds them
+     * @throws JSONException If any of the values we need for the day is missing
+     */
+    private static ContentValues readDay(JsonReader reader, long dateTimeMillis)
+            throws IOException, JSONException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        int found = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                found |= DAY_PRESSURE;
+
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject.getInt truncates fractional values, so we do the same here */
+                humidity = (int) reader.nextDouble();
+                found |= DAY_HUMIDITY;
+
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                found |= DAY_WIND_SPEED;
+
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                found |= DAY_WIND_DIRECTION;
+
+            } else if (OWM_WEATHER.equals(name)) {
+                /* Only the first element of the "weather" array is used */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            found |= DAY_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        found |= DAY_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        found |= DAY_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (found != DAY_COMPLETE) {
+            throw new JSONException("Incomplete forecast for day " + dateTimeMillis);
+        }
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        return weatherValues;
+    }
+}
@@ -15,12 +15,17 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.util.LongSparseArray;
 import android.text.format.DateUtils;
 
 import com.example.android.sunshine.R;
 
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +37,29 @@ public final class SunshineDateUtils {
     /* Milliseconds in a day */
     public static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
+    /*
+     * getFriendlyDateString is called for every list item bound, but there are only ever a
+     * couple of weeks of dates to write, and what each one says only changes at midnight. So the
+     * strings are kept here, keyed by the normalized UTC date, one cache for short dates and one
+     * for full dates. "Today" is worked out from the UTC day, while the dates are written in local
+     * time, so both are emptied at whichever of the next local or UTC midnight comes first, and
+     * when the time, time zone or locale changes, which can change every string.
+     */
+    private static final Object sFriendlyDateLock = new Object();
+    private static final LongSparseArray<String> sFriendlyDates = new LongSparseArray<>();
+    private static final LongSparseArray<String> sFullFriendlyDates = new LongSparseArray<>();
+    /* When the cached strings stop being right, in millis. Guarded by sFriendlyDateLock. */
+    private static long sFriendlyDatesExpireAt;
+    /* Guarded by sFriendlyDateLock */
+    private static boolean sFriendlyDateReceiverRegistered;
+
+    private static final BroadcastReceiver sFriendlyDateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            clearFriendlyDateCache();
+        }
+    };
+
     /**
      * This method returns the number of milliseconds (UTC time) for today's date at midnight in
      * the local time zone. For example, if you live in California and the day is September 20th,
@@ -188,6 +216,8 @@ public final class SunshineDateUtils {
      * For tomorrow:  "Tomorrow
      * For the next 5 days: "Wednesday" (just the day name)
      * For all days after that: "Mon, Jun 8" (Mon, 8 Jun in UK, for example)
+     * <p/>
+     * Each string is only written once a day; after that it comes from the cache.
      *
      * @param context               Context to use for resource localization
      * @param normalizedUtcMidnight The date in milliseconds (UTC midnight)
@@ -199,6 +229,93 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        return getFriendlyDateString(context, normalizedUtcMidnight, showFullDate,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Does the work for {@link #getFriendlyDateString(Context, long, boolean)} as if it were now
+     * the given time, so tests can check what happens when the day changes.
+     *
+     * @param now The current time, in milliseconds since the epoch
+     */
+    static String getFriendlyDateString(Context context, long normalizedUtcMidnight,
+                                        boolean showFullDate, long now) {
+        synchronized (sFriendlyDateLock) {
+            if (!sFriendlyDateReceiverRegistered) {
+                IntentFilter filter = new IntentFilter();
+                filter.addAction(Intent.ACTION_TIME_CHANGED);
+                filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+                filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+                context.getApplicationContext().registerReceiver(sFriendlyDateReceiver, filter);
+                sFriendlyDateReceiverRegistered = true;
+            }
+            if (now >= sFriendlyDatesExpireAt) {
+                sFriendlyDates.clear();
+                sFullFriendlyDates.clear();
+                sFriendlyDatesExpireAt =
+                        Math.min(getNextLocalMidnight(now), getNextUtcMidnight(now));
+            }
+
+            LongSparseArray<String> cache = showFullDate ? sFullFriendlyDates : sFriendlyDates;
+            String friendlyDate = cache.get(normalizedUtcMidnight);
+            if (friendlyDate == null) {
+                friendlyDate =
+                        formatFriendlyDateString(context, normalizedUtcMidnight, showFullDate, now);
+                cache.put(normalizedUtcMidnight, friendlyDate);
+            }
+            return friendlyDate;
+        }
+    }
+
+    /**
+     * Empties the friendly date cache, so every string is written again the next time it's
+     * asked for. Called when the time, time zone or locale changes.
+     */
+    public static void clearFriendlyDateCache() {
+        synchronized (sFriendlyDateLock) {
+            sFriendlyDates.clear();
+            sFullFriendlyDates.clear();
+            sFriendlyDatesExpireAt = 0;
+        }
+    }
+
+    /**
+     * Returns the next midnight in the local time zone after the given time.
+     *
+     * @param timeInMillis Time in milliseconds since the epoch
+     *
+     * @return The next local midnight, in milliseconds since the epoch
+     */
+    private static long getNextLocalMidnight(long timeInMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeInMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the next midnight in UTC after the given time, which is when the day that "Today"
+     * is worked out from changes.
+     *
+     * @param timeInMillis Time in milliseconds since the epoch
+     *
+     * @return The next UTC midnight, in milliseconds since the epoch
+     */
+    private static long getNextUtcMidnight(long timeInMillis) {
+        return (elapsedDaysSinceEpoch(timeInMillis) + 1) * DAY_IN_MILLIS;
+    }
+
+    /**
+     * Does the work for {@link #getFriendlyDateString(Context, long, boolean)}, without the cache,
+     * as if it were now the given time.
+     */
+    static String formatFriendlyDateString(Context context, long normalizedUtcMidnight,
+                                           boolean showFullDate, long now) {
 
         /*
          * NOTE: localDate should be localDateMidnightMillis and should be straight from the
@@ -221,14 +338,14 @@ public final class SunshineDateUtils {
          * As a basis for comparison, we use the number of days that have passed from the epoch
          * until today.
          */
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
+        long daysFromEpochToToday = elapsedDaysSinceEpoch(now);
 
         if (daysFromEpochToProvidedDate == daysFromEpochToToday || showFullDate) {
             /*
              * If the date we're building the String for is today's date, the format
              * is "Today, June 24"
              */
-            String dayName = getDayName(context, localDate);
+            String dayName = getDayName(context, localDate, now);
             String readableDate = getReadableDateString(context, localDate);
             if (daysFromEpochToProvidedDate - daysFromEpochToToday < 2) {
                 /*
@@ -248,7 +365,7 @@ public final class SunshineDateUtils {
             }
         } else if (daysFromEpochToProvidedDate < daysFromEpochToToday + 7) {
             /* If the input date is less than a week in the future, just return the day name. */
-            return getDayName(context, localDate);
+            return getDayName(context, localDate, now);
         } else {
             int flags = DateUtils.FORMAT_SHOW_DATE
                     | DateUtils.FORMAT_NO_YEAR
@@ -282,16 +399,17 @@ public final class SunshineDateUtils {
      *
      * @param context      Context to use for resource localization
      * @param dateInMillis The date in milliseconds (UTC time)
+     * @param now          The current time, in milliseconds since the epoch
      *
      * @return the string day of the week
      */
-    private static String getDayName(Context context, long dateInMillis) {
+    private static String getDayName(Context context, long dateInMillis, long now) {
         /*
          * If the date is today, return the localized version of "Today" instead of the actual
          * day name.
          */
         long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(dateInMillis);
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
+        long daysFromEpochToToday = elapsedDaysSinceEpoch(now);
 
         int daysAfterToday = (int) (daysFromEpochToProvidedDate - daysFromEpochToToday);
 
@@ -17,10 +17,13 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.util.Locale;
+
 /**
  * Contains useful utilities for a weather app, such as conversion between Celsius and Fahrenheit,
  * from kph to mph, and from degrees to NSEW.  It also contains the mapping of weather condition
@@ -30,6 +33,49 @@ public final class SunshineWeatherUtils {
 
     private static final String LOG_TAG = SunshineWeatherUtils.class.getSimpleName();
 
+    /*
+     * formatTemperature is called twice for every row bound in the forecast list, and the same
+     * few dozen temperatures come up over and over, so the text for each one is kept here once
+     * it has been formatted. The key is the rounded temperature in the units shown, times two,
+     * plus one for metric, so Celsius and Fahrenheit never share an entry. The text depends on
+     * the locale too (for the digits and the format itself), so the whole cache is emptied
+     * whenever the locale changes. It never holds more than TEMPERATURE_CACHE_SIZE entries.
+     */
+    private static final int TEMPERATURE_CACHE_SIZE = 256;
+    private static final Object sTemperatureCacheLock = new Object();
+    private static final SparseArray<String> sTemperatureCache = new SparseArray<>();
+    private static Locale sTemperatureCacheLocale;
+
+    /*
+     * The string and icons for each weather condition are looked up in these tables, indexed by
+     * the OpenWeatherMap condition id, rather than by running through the ranges below every
+     * time; they're looked up for every list item bound, every notification and every push to
+     * the watch. OpenWeatherMap ids are all below WEATHER_ID_LIMIT, and the tables are filled
+     * from the ranges once, when this class is loaded, so the ranges stay the one place to
+     * change. An entry of 0 means the id isn't a condition we know.
+     */
+    private static final int WEATHER_ID_LIMIT = 1000;
+    private static final int[] CONDITION_STRING_IDS = new int[WEATHER_ID_LIMIT];
+    private static final int[] SMALL_ART_IDS = new int[WEATHER_ID_LIMIT];
+    private static final int[] LARGE_ART_IDS = new int[WEATHER_ID_LIMIT];
+
+    static {
+        for (int weatherId = 0; weatherId < WEATHER_ID_LIMIT; weatherId++) {
+            CONDITION_STRING_IDS[weatherId] = getStringIdFromRanges(weatherId);
+            SMALL_ART_IDS[weatherId] = getSmallArtResourceIdFromRanges(weatherId);
+            LARGE_ART_IDS[weatherId] = getLargeArtResourceIdFromRanges(weatherId);
+        }
+    }
+
+    /**
+     * Looks a weather condition up in one of the tables.
+     *
+     * @return the entry for the condition, or 0 if it isn't one we know
+     */
+    private static int lookUp(int[] table, int weatherId) {
+        return weatherId >= 0 && weatherId < WEATHER_ID_LIMIT ? table[weatherId] : 0;
+    }
+
     /**
      * This method will convert a temperature from Celsius to Fahrenheit.
      *
@@ -55,13 +101,51 @@ public final class SunshineWeatherUtils {
      * "21°"
      */
     public static String formatTemperature(Context context, double temperature) {
-        if (!SunshinePreferences.isMetric(context)) {
+        boolean metric = SunshinePreferences.isMetric(context);
+        if (!metric) {
             temperature = celsiusToFahrenheit(temperature);
         }
 
-        int temperatureFormatResourceId = R.string.format_temperature;
+        /*
+         * For presentation, assume the user doesn't care about tenths of a degree. The format
+         * rounds halves away from zero, so the key is rounded the same way. Anything between
+         * -0.5 and 0 is written as "-0", which isn't worth a key of its own, so isn't cached.
+         */
+        if (temperature < 0 && temperature > -0.5) {
+            return formatTemperatureUncached(context, temperature);
+        }
+        double rounded = Math.signum(temperature) * Math.floor(Math.abs(temperature) + 0.5);
+        int key = (int) rounded * 2 + (metric ? 1 : 0);
+
+        Locale locale = Locale.getDefault();
+        synchronized (sTemperatureCacheLock) {
+            if (!locale.equals(sTemperatureCacheLocale)) {
+                sTemperatureCache.clear();
+                sTemperatureCacheLocale = locale;
+            }
+            String formatted = sTemperatureCache.get(key);
+            if (formatted == null) {
+                formatted = formatTemperatureUncached(context, rounded);
+                if (sTemperatureCache.size() >= TEMPERATURE_CACHE_SIZE) {
+                    sTemperatureCache.clear();
+                }
+                sTemperatureCache.put(key, formatted);
+            }
+            return formatted;
+        }
+    }
 
-        /* For presentation, assume the user doesn't care about tenths of a degree. */
+    /**
+     * Formats a temperature that is already in the units to show, without the cache.
+     *
+     * @param context     Android Context to access resources
+     * @param temperature Temperature in the units to show
+     *
+     * @return Formatted temperature String in the following form:
+     * "21°"
+     */
+    static String formatTemperatureUncached(Context context, double temperature) {
+        int temperatureFormatResourceId = R.string.format_temperature;
         return String.format(context.getString(temperatureFormatResourceId), temperature);
     }
 
@@ -142,6 +226,22 @@ public final class SunshineWeatherUtils {
      * @return String for the weather condition, null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
+        int stringId = lookUp(CONDITION_STRING_IDS, weatherId);
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    /**
+     * Works out the string resource id for a weather condition from the OpenWeatherMap ranges.
+     * Only used to fill in CONDITION_STRING_IDS; look conditions up in that instead.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return the string resource id, or 0 if the condition is unknown
+     */
+    static int getStringIdFromRanges(int weatherId) {
         int stringId;
         if (weatherId >= 200 && weatherId <= 232) {
             stringId = R.string.condition_2xx;
@@ -305,10 +405,10 @@ public final class SunshineWeatherUtils {
                 stringId = R.string.condition_962;
                 break;
             default:
-                return context.getString(R.string.condition_unknown, weatherId);
+                stringId = 0;
         }
 
-        return context.getString(stringId);
+        return stringId;
     }
 
     /**
@@ -326,6 +426,23 @@ public final class SunshineWeatherUtils {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getSmallArtResourceIdForWeatherCondition(int weatherId) {
+        int resourceId = lookUp(SMALL_ART_IDS, weatherId);
+        if (resourceId == 0) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.ic_storm;
+        }
+        return resourceId;
+    }
+
+    /**
+     * Works out the small art for a weather condition from the OpenWeatherMap ranges. Only used
+     * to fill in SMALL_ART_IDS; look conditions up in that instead.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding icon, or 0 if the condition is unknown
+     */
+    static int getSmallArtResourceIdFromRanges(int weatherId) {
 
         /*
          * Based on weather code data for Open Weather Map.
@@ -360,8 +477,7 @@ public final class SunshineWeatherUtils {
             return R.drawable.ic_clear;
         }
 
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.ic_storm;
+        return 0;
     }
 
     /**
@@ -379,6 +495,23 @@ public final class SunshineWeatherUtils {
      * @return resource ID for the corresponding icon. -1 if no relation is found.
      */
     public static int getLargeArtResourceIdForWeatherCondition(int weatherId) {
+        int resourceId = lookUp(LARGE_ART_IDS, weatherId);
+        if (resourceId == 0) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.art_storm;
+        }
+        return resourceId;
+    }
+
+    /**
+     * Works out the large art for a weather condition from the OpenWeatherMap ranges. Only used
+     * to fill in LARGE_ART_IDS; look conditions up in that instead.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding icon, or 0 if the condition is unknown
+     */
+    static int getLargeArtResourceIdFromRanges(int weatherId) {
 
         /*
          * Based on weather code data for Open Weather Map.
@@ -413,7 +546,6 @@ public final class SunshineWeatherUtils {
             return R.drawable.art_clear;
         }
 
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.art_storm;
+        return 0;
     }
 }
\ No newline at end of file
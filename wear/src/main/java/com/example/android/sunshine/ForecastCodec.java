@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the packed forecast the phone sends along with today's weather. This is the decoding
+ * side of the phone's WearForecastCodec, and must be kept in step with it:
+ * <pre>
+ *     header: byte version, byte flags, short number of days
+ *     day:    int epoch day, short weather id, short max temp, short min temp
+ * </pre>
+ * Temperatures are in hundredths of a degree Celsius. The units to show them in come separately,
+ * from the phone's settings DataItem.
+ * <p>
+ * Nothing is decoded up front: wrapping the bytes only checks the header, and each day is read
+ * straight out of the array when it's asked for, which is only when the user taps through the
+ * days.
+ */
+public final class ForecastCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_SIZE = 10;
+
+    private static final int OFFSET_WEATHER_ID = 4;
+    private static final int OFFSET_MAX_TEMP = 6;
+    private static final int OFFSET_MIN_TEMP = 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    private ForecastCodec(ByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * Wraps the packed forecast, without copying it.
+     *
+     * @param packed The bytes the phone sent
+     * @return The forecast, or null if there isn't one or it's in a format we don't know
+     */
+    public static ForecastCodec wrap(byte[] packed) {
+        if (packed == null || packed.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        if (buffer.get(0) != VERSION) {
+            return null;
+        }
+        int count = buffer.getShort(2);
+        if (count < 0 || HEADER_SIZE + count * RECORD_SIZE > packed.length) {
+            return null;
+        }
+        return new ForecastCodec(buffer, count);
+    }
+
+    /* The number of days in the forecast */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds the first day that isn't in the past.
+     *
+     * @param epochDay Today, as days since January 1st 1970
+     * @return The index of today or the first day after it, or -1 if every day is in the past
+     */
+    public int indexOfFirstDayFrom(long epochDay) {
+        for (int i = 0; i < mCount; i++) {
+            if (getEpochDay(i) >= epochDay) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* The day, as days since January 1st 1970 */
+    public int getEpochDay(int index) {
+        return mBuffer.getInt(offset(index));
+    }
+
+    public int getWeatherId(int index) {
+        return mBuffer.getShort(offset(index) + OFFSET_WEATHER_ID);
+    }
+
+    /* The high, in hundredths of a degree Celsius */
+    public int getMaxCentiDegrees(int index) {
+        return mBuffer.getShort(offset(index) + OFFSET_MAX_TEMP);
+    }
+
+    /* The low, in hundredths of a degree Celsius */
+    public int getMinCentiDegrees(int index) {
+        return mBuffer.getShort(offset(index) + OFFSET_MIN_TEMP);
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + index + " of " + mCount);
+        }
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
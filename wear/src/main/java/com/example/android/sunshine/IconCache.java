@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a copy on disk of every weather icon the phone has sent as an Asset, named after the hash
+ * the phone gave it. Once the phone knows we have an icon, it only sends the hash, and the icon is
+ * read from here instead of being fetched from the phone again.
+ */
+public final class IconCache {
+
+    private static final String TAG = IconCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "icons";
+
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    private IconCache() {
+    }
+
+    /**
+     * Reads the icon with the given hash.
+     *
+     * @param context Used to find the cache directory
+     * @param hash    The hash the phone sent
+     * @return The PNG bytes of the icon, or null if we don't have it
+     */
+    public static byte[] get(Context context, String hash) {
+        File file = getFile(context, hash);
+        if (file == null || !file.isFile()) {
+            sMisses.incrementAndGet();
+            return null;
+        }
+
+        byte[] png = new byte[(int) file.length()];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int offset = 0;
+            while (offset < png.length) {
+                int read = in.read(png, offset, png.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != png.length) {
+                sMisses.incrementAndGet();
+                return null;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "get: can't read icon " + hash, e);
+            sMisses.incrementAndGet();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        sHits.incrementAndGet();
+        return png;
+    }
+
+    /**
+     * Stores an icon the phone has sent, so it doesn't have to be sent again.
+     *
+     * @param context Used to find the cache directory
+     * @param hash    The hash the phone sent with the icon
+     * @param png     The PNG bytes of the icon
+     * @param length  How many bytes of png are used
+     */
+    public static void put(Context context, String hash, byte[] png, int length) {
+        File file = getFile(context, hash);
+        if (file == null) {
+            return;
+        }
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        /* Written to a temporary file first, so a half written icon is never read */
+        File temporary = new File(directory, hash + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temporary);
+            out.write(png, 0, length);
+            out.close();
+            out = null;
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "put: can't write icon " + hash, e);
+            temporary.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public static long getHitCount() {
+        return sHits.get();
+    }
+
+    public static long getMissCount() {
+        return sMisses.get();
+    }
+
+    public static void logStatistics() {
+        Log.d(TAG, "Icon cache hits: " + sHits.get() + ", misses: " + sMisses.get());
+    }
+
+    /**
+     * Returns the file for a hash, or null if the hash isn't a plain hex String, so that nothing
+     * the phone sends can point outside the cache directory.
+     */
+    private static File getFile(Context context, String hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) == -1) {
+                return null;
+            }
+        }
+        return new File(new File(context.getCacheDir(), CACHE_DIRECTORY), hash + ".png");
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            /* Nothing to do */
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+/**
+ * Turns the temperatures the phone sends, in hundredths of a degree Celsius, into the text drawn
+ * on the watch face, such as "21°", in either Celsius or Fahrenheit.
+ * <p>
+ * There are only a few hundred temperatures anyone will ever see, so the text for each whole
+ * degree is made the first time it's needed and kept. After that, formatting a temperature
+ * allocates nothing, and switching units is just a matter of formatting again.
+ */
+final class TemperatureFormatter {
+
+    /* The range of whole degrees, in either unit, whose text is kept */
+    private static final int MIN_CACHED_DEGREES = -100;
+    private static final int MAX_CACHED_DEGREES = 160;
+
+    private final String[] mCache = new String[MAX_CACHED_DEGREES - MIN_CACHED_DEGREES + 1];
+
+    /**
+     * Formats a temperature.
+     *
+     * @param centiDegreesCelsius The temperature in hundredths of a degree Celsius
+     * @param metric              Whether to show it in Celsius rather than Fahrenheit
+     * @return The temperature rounded to a whole degree, followed by a degree sign
+     */
+    String format(int centiDegreesCelsius, boolean metric) {
+        int degrees = toWholeDegrees(centiDegreesCelsius, metric);
+        if (degrees < MIN_CACHED_DEGREES || degrees > MAX_CACHED_DEGREES) {
+            return degrees + "°";
+        }
+        String text = mCache[degrees - MIN_CACHED_DEGREES];
+        if (text == null) {
+            text = degrees + "°";
+            mCache[degrees - MIN_CACHED_DEGREES] = text;
+        }
+        return text;
+    }
+
+    /**
+     * Converts hundredths of a degree Celsius into whole degrees in the given units, rounding
+     * halves away from zero like the phone does.
+     */
+    static int toWholeDegrees(int centiDegreesCelsius, boolean metric) {
+        double degrees = centiDegreesCelsius / 100.0;
+        if (!metric) {
+            degrees = (degrees * 1.8) + 32;
+        }
+        return (int) (degrees < 0 ? -Math.round(-degrees) : Math.round(degrees));
+    }
+}
@@ -30,6 +30,7 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
@@ -54,17 +55,21 @@ import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
-// * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * Digital watch face. Seconds are only shown if R.bool.show_seconds is set, and never in ambient
+ * mode. On devices with low-bit ambient mode, the text is drawn without anti-aliasing in ambient
+ * mode.
  */
 public class WatchFaceService extends CanvasWatchFaceService {
     private static final Typeface NORMAL_TYPEFACE =
@@ -72,21 +77,168 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
     private static final String TAG = WatchFaceService.class.getSimpleName();
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
+     * Update rate in milliseconds for interactive mode when seconds are shown. Waking up every
+     * second keeps the CPU busy, so this is only used if the seconds are actually on the screen.
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
 
+    /**
+     * Update rate in milliseconds for interactive mode when only hours and minutes are shown.
+     * Updates are lined up with the start of each minute, so the time changes when it should.
+     */
+    private static final long MINUTE_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long to wait after new weather arrives before drawing it. The temperatures and the image
+     * arrive separately, so waiting a little lets them be drawn in one frame instead of two.
+     */
+    private static final long DATA_REDRAW_DELAY_MS = 500;
+
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Handler message id for drawing new weather data.
+     */
+    private static final int MSG_DATA_REDRAW = 1;
+
+    /**
+     * How many frames to time before the average and worst frame time are logged. The times are
+     * only logged if debug logging is enabled for the Engine tag, for example with
+     * adb shell setprop log.tag.Engine DEBUG
+     */
+    private static final int FRAME_STATS_INTERVAL = 60;
+
+    /**
+     * When true, the number of objects allocated while drawing each frame is counted and logged
+     * along with the frame times. Counting allocations slows everything down, so this is only for
+     * checking that the draw loop doesn't create garbage; it should be 0 in steady state.
+     */
+    private static final boolean TRACK_ALLOCATIONS = false;
+
+    /** Width and height of the weather image on the watch face, in pixels */
+    private static final int ICON_SIZE_PX = 50;
+
+    /** Pattern for the date under the time, e.g. FRI, JAN 22 2017 */
+    private static final String DATE_PATTERN = "EEE, MMM dd yyyy";
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    /**
+     * Writes the time as HH:MM, or HH:MM:SS, into the given array rather than building a String,
+     * so drawing the time doesn't allocate anything.
+     * @param out array of at least 8 chars to write into
+     * @param hour hour to write, from 0 to 23
+     * @param minute minute to write, from 0 to 59
+     * @param second second to write, from 0 to 59, or -1 to leave the seconds out
+     * @return the number of chars written, 5 without seconds and 8 with them
+     */
+    private static int formatTime(char[] out, int hour, int minute, int second) {
+        out[0] = (char) ('0' + hour / 10);
+        out[1] = (char) ('0' + hour % 10);
+        out[2] = ':';
+        out[3] = (char) ('0' + minute / 10);
+        out[4] = (char) ('0' + minute % 10);
+        if (second < 0) {
+            return 5;
+        }
+        out[5] = ':';
+        out[6] = (char) ('0' + second / 10);
+        out[7] = (char) ('0' + second % 10);
+        return 8;
+    }
+
+
+    /**
+     * Decodes a weather image straight to ICON_SIZE_PX, into the given bitmap rather than a new
+     * one. inSampleSize does most of the shrinking while decoding, and inDensity/inTargetDensity
+     * scale what is left so that the longest side comes out at exactly ICON_SIZE_PX. As the
+     * result is never bigger than the bitmap being reused, BitmapFactory can decode into it.
+     * <p>
+     * If the bitmap can't be reused for any reason, this falls back to decoding a new bitmap and
+     * scaling it with createScaledBitmap, which is what the watch face always used to do.
+     * @param data the encoded image
+     * @param length how many bytes of data are used
+     * @param reuse a mutable ICON_SIZE_PX square ARGB_8888 bitmap to decode into
+     * @return the decoded image, which is reuse unless the fallback was needed, or null if the
+     * data isn't an image
+     */
+    private static Bitmap decodeIcon(byte[] data, int length, Bitmap reuse) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        int largestSide = Math.max(options.outWidth, options.outHeight);
+        if (largestSide <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (largestSide / (sampleSize * 2) >= ICON_SIZE_PX) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inScaled = true;
+        options.inDensity = largestSide / sampleSize;
+        options.inTargetDensity = ICON_SIZE_PX;
+        options.inMutable = true;
+        options.inBitmap = reuse;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.d(TAG, "decodeIcon: can't decode into the reused bitmap", e);
+        }
+
+        //fall back to a new bitmap
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, length);
+        if (decoded == null) {
+            return null;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, ICON_SIZE_PX, ICON_SIZE_PX, false);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Reads an image into memory, as its size is needed before decoding it, and closes the stream.
+     * @param in the image, or null
+     * @return the image, or null if there isn't one or it can't be read
+     */
+    private static ByteArrayOutputStream readImage(InputStream in) {
+        if (in == null) {
+            return null;
+        }
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                image.write(buffer, 0, read);
+            }
+            return image;
+        } catch (IOException e) {
+            Log.d(TAG, "readImage: can't read the image", e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                //nothing to do
+            }
+        }
+    }
 
     private static class EngineHandler extends Handler {
         private final WeakReference<WatchFaceService.Engine> mWeakReference;
@@ -103,6 +255,9 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         engine.handleUpdateTimeMessage();
                         break;
+                    case MSG_DATA_REDRAW:
+                        engine.handleDataRedrawMessage();
+                        break;
                 }
             }
         }
@@ -142,11 +297,66 @@ public class WatchFaceService extends CanvasWatchFaceService {
         /** This is used to get the current time and date */
         Calendar mCalendar;
 
-        /** Get the time zone based on user's location */
+        /**
+         * Everything on the watch face except the time (the background, the date, the separator,
+         * the temperatures and the weather image) only changes when new weather arrives, when the
+         * day changes or when the watch goes in or out of ambient mode. Rather than drawing all
+         * of it again every frame, it is drawn once into this off-screen bitmap, and each frame
+         * just copies the bitmap onto the screen and draws the time on top.
+         */
+        Bitmap mLayerBitmap;
+        Canvas mLayerCanvas;
+        /** Set whenever something drawn in the layer has changed, so it is redrawn next frame */
+        boolean mLayerDirty = true;
+        /** The day of the year the date in the layer was drawn for */
+        int mLayerDay = -1;
+
+        /** The digits of the time, reused every frame, see formatTime */
+        final char[] mTimeChars = new char[8];
+        /**
+         * Whether the user wants a 24 hour clock. Looking this up reads the system settings, so
+         * it is cached here and only looked up again when the time settings broadcast says it may
+         * have changed, or when the watch face becomes visible.
+         */
+        boolean mIs24Hour;
+        /** The date text is only formatted once a day, for the day in mDateDay */
+        SimpleDateFormat mDateFormat;
+        String mDateText = "";
+        int mDateDay = -1;
+
+        /** Frame time statistics, see recordFrameTime */
+        int mFrameCount;
+        long mFrameTimeTotalNs;
+        long mFrameTimeMaxNs;
+        int mLayerRebuildCount;
+        long mAllocationTotal;
+
+        /** Whether seconds are shown in interactive mode, which decides how often to wake up */
+        boolean mShowSeconds;
+        /** When the next MSG_UPDATE_TIME is due, or 0 if the timer isn't running */
+        long mNextTickMs;
+        /**
+         * How many times the watch face has woken up, and how many frames it has drawn, since it
+         * last became visible. Each wakeup costs power whether or not anything changed on the
+         * screen, so these are logged when the watch face is hidden to show what it cost.
+         */
+        int mWakeupCount;
+        int mTotalFrameCount;
+
+        /**
+         * Get the time zone based on user's location. Also listens for changes to the time
+         * settings (which is where the 24 hour setting lives) and the locale, which change how
+         * the time and date are written.
+         */
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                    //the day and month names have to be looked up in the new language
+                    mDateFormat = null;
+                }
+                updateTimeSettings();
                 invalidate();
             }
         };
@@ -174,9 +384,56 @@ public class WatchFaceService extends CanvasWatchFaceService {
          * maxTemp keeps the maximum temperature
          */
         Bitmap imageBitmap;
+        /**
+         * The weather image is decoded into one of two bitmaps that are made once and then reused:
+         * the one being drawn (imageBitmap) and this spare one. A new image is decoded into the
+         * spare, and the two swap once it is ready, so the old image stays on the screen until
+         * then and no frame is ever drawn without an image.
+         */
+        Bitmap mSpareImageBitmap;
+        /** The decode that is running, if any; only one runs at a time so the spare isn't shared */
+        LoadBitmapTask mLoadBitmapTask;
+        /**
+         * The newest image that arrived while a decode was running, to decode after it. It is
+         * either an icon bundled with the watch face (a resource id) or an Asset from the phone.
+         */
+        boolean mHasPendingImage;
+        int mPendingImageResourceId;
+        Asset mPendingImageAsset;
+        String mPendingImageHash;
+        /** The resource id of the icon being drawn, or 0 if it came from the phone */
+        int mImageResourceId;
+        /** The hash of the icon being drawn, if it came from the phone */
+        String mImageHash;
+        /** How many times the icon didn't need decoding, because it was already being drawn */
+        int mDecodeSkipCount;
         String minTemp = "";
         String maxTemp = "";
 
+        /**
+         * Today's weather as the phone sent it. minTemp, maxTemp and the image show either this
+         * or, after the user has tapped, one of the following days from mForecast.
+         */
+        boolean mHasTodayTemps;
+        int mTodayMinCentiDegrees;
+        int mTodayMaxCentiDegrees;
+        int mTodayImageResourceId;
+        Asset mTodayImageAsset;
+        String mTodayImageHash;
+        /**
+         * The days after today, packed by the phone into a single byte array. Each day is only
+         * read from it when a tap brings that day up, see ForecastCodec.
+         */
+        ForecastCodec mForecast;
+        /** The day of mForecast being shown, or -1 when today is shown */
+        int mForecastIndex = -1;
+        /**
+         * The phone sends temperatures in hundredths of a degree Celsius, and the units the user
+         * wants them in separately, so switching units only means formatting them again here.
+         */
+        boolean mMetric = true;
+        final TemperatureFormatter mTemperatureFormatter = new TemperatureFormatter();
+
         /*
          * Data Items for Wearables
          */
@@ -184,9 +441,15 @@ public class WatchFaceService extends CanvasWatchFaceService {
         public static final String WEATHER_WEAR_PATH = "/wearweather";
         //keys
         public static final String WEATHER_IMAGE_KEY = "image";
-        public static final String WEATHER_MAX_KEY = "max";
-        public static final String WEATHER_MIN_KEY = "min";
+        public static final String WEATHER_IMAGE_HASH_KEY = "imageHash";
+        public static final String WEATHER_ID_KEY = "weatherId";
+        public static final String WEATHER_MAX_KEY = "maxCenti";
+        public static final String WEATHER_MIN_KEY = "minCenti";
+        public static final String WEATHER_FORECAST_KEY = "forecast";
         public static final String TIME_KEY = "time"; //this is not used, but get be used for logging purposes
+        //the units the user wants, which the phone sends at their own path
+        public static final String SETTINGS_WEAR_PATH = "/wearsettings";
+        public static final String METRIC_KEY = "metric";
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
@@ -217,6 +480,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
             mYPadding = resources.getDimension(R.dimen.digital_y_padding);
             mYDividerPadding = resources.getDimension(R.dimen.digital_y_divide_padding);
             mAmPmYOffset = resources.getDimension(R.dimen.digital_ampm_offset);
+            mShowSeconds = resources.getBoolean(R.bool.show_seconds);
 
             //The background is blue
             mBackgroundPaint = new Paint();
@@ -245,6 +509,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             //get the current time and date
             mCalendar = Calendar.getInstance();
+            mIs24Hour = android.text.format.DateFormat.is24HourFormat(WatchFaceService.this);
 
             //initialize GoogleApiClient to get the data items
             mGoogleApiClient = new GoogleApiClient.Builder(WatchFaceService.this)
@@ -263,11 +528,17 @@ public class WatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_DATA_REDRAW);
             //remove GoogleApiClient connections
             if (mGoogleApiClient != null && mGoogleApiClient.isConnected()){
                 Wearable.DataApi.removeListener(mGoogleApiClient, this);
                 mGoogleApiClient.disconnect();
             }
+            if (mLayerBitmap != null) {
+                mLayerBitmap.recycle();
+                mLayerBitmap = null;
+                mLayerCanvas = null;
+            }
             super.onDestroy();
         }
 
@@ -295,11 +566,13 @@ public class WatchFaceService extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
 
-                // Update time zone in case it changed while we weren't visible.
+                // Update time zone and settings in case they changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeSettings();
                 invalidate();
             } else {
                 unregisterReceiver();
+                logPowerStatistics();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -316,10 +589,22 @@ public class WatchFaceService extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
             WatchFaceService.this.registerReceiver(mTimeZoneReceiver, filter);
 
         }
 
+        /**
+         * Looks up the 24 hour setting again and makes the date be formatted again, as the time
+         * zone, locale or time may have changed
+         */
+        private void updateTimeSettings() {
+            mIs24Hour = android.text.format.DateFormat.is24HourFormat(WatchFaceService.this);
+            mDateDay = -1;
+            mLayerDirty = true;
+        }
+
         /**
          * unregister the time zone receiver
          */
@@ -357,6 +642,21 @@ public class WatchFaceService extends CanvasWatchFaceService {
             mMaxTempPaint.setTextSize(resources.getDimension(R.dimen.digital_temp_text_size));
             mDayTextPaint.setTextSize(resources.getDimension(R.dimen.digital_date_text_size));
 
+            //the offsets and text sizes of everything in the layer have changed
+            mLayerDirty = true;
+        }
+
+        /**
+         * The layer has to be the same size as the surface, so a new one is made next frame
+         * @param holder
+         * @param format
+         * @param width
+         * @param height
+         */
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mLayerDirty = true;
         }
 
         /**
@@ -370,11 +670,12 @@ public class WatchFaceService extends CanvasWatchFaceService {
         }
 
         /**
-         * Update Layout every second
+         * Update Layout every minute in ambient mode
          */
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mWakeupCount++;
             invalidate();
         }
 
@@ -394,6 +695,12 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     mMaxTempPaint.setAntiAlias(antiAliasing);
                     mMinTempPaint.setAntiAlias(antiAliasing);
                 }
+                //the layer has a black background in ambient mode
+                mLayerDirty = true;
+                //when the watch wakes up again it should show today, not the day tapped to
+                if (inAmbientMode && mForecastIndex != -1) {
+                    showForecastDay(-1);
+                }
                 invalidate();
             }
 
@@ -403,8 +710,8 @@ public class WatchFaceService extends CanvasWatchFaceService {
         }
 
         /**
-         * Captures tap event (and tap type) and toggles the background color if the user finishes
-         * a tap.
+         * Captures tap event (and tap type) and shows the next day of the forecast if the user
+         * finishes a tap. After the last day, it goes back to today.
          */
         @Override
         public void onTapCommand(int tapType, int x, int y, long eventTime) {
@@ -417,59 +724,118 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     break;
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
+                    showNextForecastDay();
                     break;
             }
             invalidate();
         }
 
         /**
-         * Draws the bitmap and text on the screen
+         * Draws the bitmap and text on the screen. Only the time is drawn from scratch; the rest
+         * is copied from the layer, which is redrawn first if anything in it has changed.
          * @param canvas
          * @param bounds
          */
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            if (TRACK_ALLOCATIONS) {
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
             }
+            long frameStartNs = System.nanoTime();
 
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
-            boolean is24Hour = android.text.format.DateFormat.is24HourFormat(WatchFaceService.this);
+
+            //the date is part of the layer, so it has to be redrawn when the day changes
+            int day = mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (mLayerDirty || day != mLayerDay || mLayerBitmap == null
+                    || mLayerBitmap.getWidth() != bounds.width()
+                    || mLayerBitmap.getHeight() != bounds.height()) {
+                drawLayer(bounds.width(), bounds.height());
+                mLayerDay = day;
+            }
+            canvas.drawBitmap(mLayerBitmap, 0, 0, null);
 
             //Draw Time, checks if user's setting is 24hour or not
-            String timeText;
+            int timeLength;
             float xCoordinates;
-            if (is24Hour){
-                timeText = String.format(Locale.getDefault(), "%02d:%02d", mCalendar.get(Calendar.HOUR_OF_DAY),
-                        mCalendar.get(Calendar.MINUTE));
+            //the seconds are never shown in ambient mode, as it only updates once a minute
+            int second = mShowSeconds && !isInAmbientMode() ? mCalendar.get(Calendar.SECOND) : -1;
+            if (mIs24Hour){
+                timeLength = formatTime(mTimeChars, mCalendar.get(Calendar.HOUR_OF_DAY),
+                        mCalendar.get(Calendar.MINUTE), second);
                 xCoordinates = mXOffset;
             } else {
-                String amPm = mCalendar.get(Calendar.HOUR_OF_DAY) >= 12 ? "PM" : "AM";
-                float yAmPmCoordinates = amPm.equals("PM") ? mYOffset : mYOffset - mAmPmYOffset;
+                boolean isPm = mCalendar.get(Calendar.HOUR_OF_DAY) >= 12;
+                float yAmPmCoordinates = isPm ? mYOffset : mYOffset - mAmPmYOffset;
                 float xAmPmCoordinates = mXOffset + (mTextPaint.getTextSize() * 2) + mXPadding;
                 int hour = mCalendar.get(Calendar.HOUR);
                 hour = (hour == 0) ? 12: hour; //hour is represented from 0 to 11. (12 o'clock is 0)
-                timeText = String.format(Locale.getDefault(), "%02d:%02d ", hour,
-                        mCalendar.get(Calendar.MINUTE));
+                timeLength = formatTime(mTimeChars, hour, mCalendar.get(Calendar.MINUTE), second);
 
-                canvas.drawText(amPm, xAmPmCoordinates, yAmPmCoordinates, mDayTextPaint);
+                canvas.drawText(isPm ? "PM" : "AM", xAmPmCoordinates, yAmPmCoordinates, mDayTextPaint);
                 xCoordinates = mXOffset - mXPadding;
             }
 
-            canvas.drawText(timeText, xCoordinates, mYOffset, mTextPaint);
+            canvas.drawText(mTimeChars, 0, timeLength, xCoordinates, mYOffset, mTextPaint);
+
+            long frameTimeNs = System.nanoTime() - frameStartNs;
+            int allocations = 0;
+            if (TRACK_ALLOCATIONS) {
+                allocations = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+            recordFrameTime(frameTimeNs, allocations);
+        }
+
+        /**
+         * Draws everything except the time into the layer bitmap, making a new bitmap first if
+         * there isn't one yet or the surface has changed size.
+         * @param width width of the surface
+         * @param height height of the surface
+         */
+        private void drawLayer(int width, int height) {
+            if (mLayerBitmap == null || mLayerBitmap.getWidth() != width
+                    || mLayerBitmap.getHeight() != height) {
+                if (mLayerBitmap != null) {
+                    mLayerBitmap.recycle();
+                }
+                mLayerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mLayerCanvas = new Canvas(mLayerBitmap);
+            }
+            Canvas canvas = mLayerCanvas;
+
+            // Draw the background.
+            if (isInAmbientMode()) {
+                canvas.drawColor(Color.BLACK);
+            } else {
+                canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+            }
 
             //Draw date in this form: FRI, JAN 22 2017
-            SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.getDefault());
-            String currentDate = dateFormat.format(mCalendar.getTime()).toUpperCase();
-            canvas.drawText(currentDate, mXOffset - mXPadding, mYOffset + mYPadding, mDayTextPaint);
+            int day = mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (day != mDateDay) {
+                if (mDateFormat == null) {
+                    mDateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.getDefault());
+                }
+                Date date;
+                if (mForecastIndex == -1) {
+                    mDateFormat.setTimeZone(mCalendar.getTimeZone());
+                    date = mCalendar.getTime();
+                } else {
+                    //forecast days are midnight UTC of the day they're for
+                    mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    date = new Date(TimeUnit.DAYS.toMillis(mForecast.getEpochDay(mForecastIndex)));
+                }
+                mDateText = mDateFormat.format(date).toUpperCase(Locale.getDefault());
+                mDateDay = day;
+            }
+            canvas.drawText(mDateText, mXOffset - mXPadding, mYOffset + mYPadding, mDayTextPaint);
 
             //Draw a separator
             float yDividerCoordinates = mYOffset + mYPadding + mYDividerPadding;
-            canvas.drawLine(canvas.getWidth()/2 - 30f, yDividerCoordinates, canvas.getWidth()/2 + 30f, yDividerCoordinates, mSeparatorPaint);
+            canvas.drawLine(width/2 - 30f, yDividerCoordinates, width/2 + 30f, yDividerCoordinates, mSeparatorPaint);
 
             //Draw the min and max temp
             float yTempCoordinates = yDividerCoordinates + (mYPadding * 1.6f);
@@ -484,6 +850,40 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             //TODO: add error message/text when image is null
 
+            mLayerDirty = false;
+            mLayerRebuildCount++;
+        }
+
+        /**
+         * Keeps a running total and maximum of how long onDraw takes, and logs the average and the
+         * worst frame every FRAME_STATS_INTERVAL frames, along with how many of those frames had to
+         * redraw the layer. Nothing is logged unless debug logging is enabled for TAG.
+         * @param frameTimeNs how long the frame took to draw, in nanoseconds
+         * @param allocations how many objects the frame allocated, 0 unless TRACK_ALLOCATIONS
+         */
+        private void recordFrameTime(long frameTimeNs, int allocations) {
+            mFrameCount++;
+            mTotalFrameCount++;
+            mFrameTimeTotalNs += frameTimeNs;
+            mAllocationTotal += allocations;
+            if (frameTimeNs > mFrameTimeMaxNs) {
+                mFrameTimeMaxNs = frameTimeNs;
+            }
+
+            if (mFrameCount == FRAME_STATS_INTERVAL) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "onDraw: " + mFrameCount + " frames, average "
+                            + TimeUnit.NANOSECONDS.toMicros(mFrameTimeTotalNs / mFrameCount)
+                            + "us, worst " + TimeUnit.NANOSECONDS.toMicros(mFrameTimeMaxNs)
+                            + "us, layer redrawn " + mLayerRebuildCount + " times"
+                            + (TRACK_ALLOCATIONS ? ", " + mAllocationTotal + " allocations" : ""));
+                }
+                mFrameCount = 0;
+                mFrameTimeTotalNs = 0;
+                mFrameTimeMaxNs = 0;
+                mLayerRebuildCount = 0;
+                mAllocationTotal = 0;
+            }
         }
 
         /**
@@ -492,11 +892,20 @@ public class WatchFaceService extends CanvasWatchFaceService {
          */
         private void updateTimer() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mNextTickMs = 0;
             if (shouldTimerBeRunning()) {
                 mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
             }
         }
 
+        /**
+         * How often the timer wakes up in interactive mode: every second if seconds are shown,
+         * otherwise only at the start of every minute.
+         */
+        private long getUpdateRateMs() {
+            return mShowSeconds ? INTERACTIVE_UPDATE_RATE_MS : MINUTE_UPDATE_RATE_MS;
+        }
+
         /**
          * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer should
          * only run when we're visible and in interactive mode.
@@ -509,15 +918,60 @@ public class WatchFaceService extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            mWakeupCount++;
+            //this frame draws any new weather too, so there's no need for a separate one
+            mUpdateTimeHandler.removeMessages(MSG_DATA_REDRAW);
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long updateRateMs = getUpdateRateMs();
+                long delayMs = updateRateMs - (timeMs % updateRateMs);
+                mNextTickMs = timeMs + delayMs;
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
+        /**
+         * Draws new weather data. Called DATA_REDRAW_DELAY_MS after the first of a burst of data
+         * changes, so that all of them end up in one frame.
+         */
+        private void handleDataRedrawMessage() {
+            mWakeupCount++;
+            invalidate();
+        }
+
+        /**
+         * Asks for new weather data to be drawn. Rather than drawing straight away, the redraw is
+         * merged into the next frame that is going to be drawn anyway:
+         * - if the watch face isn't visible, nothing happens, as becoming visible draws a frame
+         * - if the timer is about to draw the next frame, that frame will show the new data
+         * - if a data redraw is already waiting, it will show this data as well
+         * Otherwise, a redraw is scheduled DATA_REDRAW_DELAY_MS from now.
+         */
+        private void requestDataRedraw() {
+            if (!isVisible() || mUpdateTimeHandler.hasMessages(MSG_DATA_REDRAW)) {
+                return;
+            }
+            if (mNextTickMs != 0
+                    && mNextTickMs - System.currentTimeMillis() <= DATA_REDRAW_DELAY_MS) {
+                return;
+            }
+            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_DATA_REDRAW, DATA_REDRAW_DELAY_MS);
+        }
+
+        /**
+         * Logs how many times the watch face woke up and how many frames it drew while it was
+         * visible, then starts counting again. Only logged if debug logging is enabled for TAG.
+         */
+        private void logPowerStatistics() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "logPowerStatistics: " + mWakeupCount + " wakeups, "
+                        + mTotalFrameCount + " frames while visible");
+            }
+            mWakeupCount = 0;
+            mTotalFrameCount = 0;
+        }
+
         /**
          * Read the data Items from the Google Api Client and updates the UI with those items
          * @param dataEventBuffer
@@ -527,8 +981,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
             Log.d(TAG, "onDataChanged: inside method");
             //loop through each of them and update the UI
             for (DataEvent event: dataEventBuffer){
-                if (event.getType() == DataEvent.TYPE_CHANGED &&
-                event.getDataItem().getUri().getPath().compareTo(WEATHER_WEAR_PATH) == 0){
+                if (event.getType() == DataEvent.TYPE_CHANGED){
                     updateUIFromDataItems(event.getDataItem());
                 }
             }
@@ -541,18 +994,158 @@ public class WatchFaceService extends CanvasWatchFaceService {
          * @param dataItem
          */
         public void updateUIFromDataItems(DataItem dataItem){
+            String path = dataItem.getUri().getPath();
+            if (SETTINGS_WEAR_PATH.equals(path)) {
+                updateSettingsFromDataItem(dataItem);
+                return;
+            }
+            if (!WEATHER_WEAR_PATH.equals(path)) {
+                return;
+            }
             DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-            if (imageBitmap != null) {
-                imageBitmap.recycle();
-                imageBitmap = null;
+            //the current image is drawn until the new one has been decoded
+            //the phone may send the icon itself, the hash of an icon it sent before, the weather
+            //id so we can use our own copy of the icon, or a hash and the weather id together
+            int resourceId = 0;
+            if (dataMap.containsKey(WEATHER_ID_KEY)) {
+                int weatherId = dataMap.getInt(WEATHER_ID_KEY);
+                resourceId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
             }
-            new LoadBitmapTask().execute(dataMap.getAsset(WEATHER_IMAGE_KEY));
-            maxTemp = dataMap.getString(WEATHER_MAX_KEY);
-            minTemp = dataMap.getString(WEATHER_MIN_KEY);
+            mTodayImageResourceId = resourceId;
+            mTodayImageAsset = dataMap.getAsset(WEATHER_IMAGE_KEY);
+            mTodayImageHash = dataMap.getString(WEATHER_IMAGE_HASH_KEY);
+            mHasTodayTemps = dataMap.containsKey(WEATHER_MAX_KEY)
+                    && dataMap.containsKey(WEATHER_MIN_KEY);
+            mTodayMaxCentiDegrees = dataMap.getInt(WEATHER_MAX_KEY);
+            mTodayMinCentiDegrees = dataMap.getInt(WEATHER_MIN_KEY);
+            //only the header is checked here; the days are read if and when they're tapped to
+            mForecast = ForecastCodec.wrap(dataMap.getByteArray(WEATHER_FORECAST_KEY));
+            showForecastDay(-1);
+            requestDataRedraw();
             Log.d(TAG, "onDataChanged: " + minTemp + "-:-" + maxTemp);
 
         }
 
+        /**
+         * Switches the temperatures to the units the user has chosen on the phone. The weather
+         * doesn't have to be sent again for this, so it shows as soon as the setting arrives.
+         * @param dataItem
+         */
+        private void updateSettingsFromDataItem(DataItem dataItem) {
+            DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
+            boolean metric = dataMap.getBoolean(METRIC_KEY, true);
+            if (metric != mMetric) {
+                mMetric = metric;
+                updateTemperatures();
+                requestDataRedraw();
+            }
+        }
+
+        /**
+         * Shows the day after the one being shown, skipping today as that is shown already, or
+         * today again after the last day. Does nothing if the phone hasn't sent a forecast.
+         */
+        private void showNextForecastDay() {
+            if (mForecast == null) {
+                return;
+            }
+            long today = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+            int first = mForecast.indexOfFirstDayFrom(today);
+            if (first == -1) {
+                return;
+            }
+            int next;
+            if (mForecastIndex == -1) {
+                next = mForecast.getEpochDay(first) == today ? first + 1 : first;
+            } else {
+                next = mForecastIndex + 1;
+            }
+            showForecastDay(next < mForecast.size() ? next : -1);
+        }
+
+        /**
+         * Shows the weather for a day of the forecast, or today's weather as the phone sent it.
+         * @param index the day of mForecast, or -1 for today
+         */
+        private void showForecastDay(int index) {
+            mForecastIndex = index;
+            updateTemperatures();
+            if (index == -1) {
+                loadImage(mTodayImageResourceId, mTodayImageAsset, mTodayImageHash);
+            } else {
+                int weatherId = mForecast.getWeatherId(index);
+                loadImage(SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId),
+                        null, null);
+            }
+            //the date has to be written again for the day being shown
+            mDateDay = -1;
+            mLayerDirty = true;
+        }
+
+        /**
+         * Formats the temperatures of the day being shown, in the units the user has chosen.
+         * The formatter keeps the text for each temperature, so this doesn't allocate once a
+         * temperature has been seen.
+         */
+        private void updateTemperatures() {
+            if (mForecastIndex != -1) {
+                maxTemp = mTemperatureFormatter.format(
+                        mForecast.getMaxCentiDegrees(mForecastIndex), mMetric);
+                minTemp = mTemperatureFormatter.format(
+                        mForecast.getMinCentiDegrees(mForecastIndex), mMetric);
+            } else if (mHasTodayTemps) {
+                maxTemp = mTemperatureFormatter.format(mTodayMaxCentiDegrees, mMetric);
+                minTemp = mTemperatureFormatter.format(mTodayMinCentiDegrees, mMetric);
+            } else {
+                maxTemp = "";
+                minTemp = "";
+            }
+            mLayerDirty = true;
+        }
+
+        /**
+         * Starts decoding the image into the spare bitmap, or if a decode is already running,
+         * remembers the image so that it is decoded as soon as that one finishes. Only the newest
+         * waiting image is kept; older ones would be replaced straight away anyway.
+         * @param resourceId the bundled icon to show if there's no other image, or 0
+         * @param asset the weather image from the phone, or null
+         * @param hash the hash of the image from the phone, or null
+         */
+        private void loadImage(int resourceId, Asset asset, String hash) {
+            if (mLoadBitmapTask != null) {
+                mHasPendingImage = true;
+                mPendingImageResourceId = resourceId;
+                mPendingImageAsset = asset;
+                mPendingImageHash = hash;
+                return;
+            }
+            boolean sameImage = hash != null
+                    ? hash.equals(mImageHash)
+                    : asset == null && resourceId != 0 && resourceId == mImageResourceId;
+            if (sameImage && imageBitmap != null) {
+                //the weather changed, but not enough to change the icon
+                mDecodeSkipCount++;
+                Log.d(TAG, "loadImage: icon unchanged, " + mDecodeSkipCount + " decodes skipped");
+                return;
+            }
+            if (mSpareImageBitmap == null) {
+                mSpareImageBitmap = Bitmap.createBitmap(ICON_SIZE_PX, ICON_SIZE_PX,
+                        Bitmap.Config.ARGB_8888);
+            }
+            mLoadBitmapTask = new LoadBitmapTask(mSpareImageBitmap, resourceId, hash);
+            mLoadBitmapTask.execute(asset);
+        }
+
+        /**
+         * Whether a bitmap can be decoded into by decodeIcon, so it can be kept as the spare
+         * @param bitmap
+         * @return
+         */
+        private boolean isReusable(Bitmap bitmap) {
+            return bitmap != null && !bitmap.isRecycled() && bitmap.isMutable()
+                    && bitmap.getAllocationByteCount() >= ICON_SIZE_PX * ICON_SIZE_PX * 4;
+        }
+
         /**
          * add the listeners to the Google Api Client
          * @param bundle
@@ -568,9 +1161,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
                         updateUIFromDataItems(dataItem);
                     }
                     dataItems.release();
-                    if (isVisible() && !isInAmbientMode()) {
-                        invalidate();
-                    }
+                    requestDataRedraw();
                 }
             });
             Log.d(TAG, "onConnected: mGoogleApiClient connected");
@@ -595,52 +1186,123 @@ public class WatchFaceService extends CanvasWatchFaceService {
         }
 
         /**
-         * AsyncTask to load the image in a background tread
+         * AsyncTask to load the image in a background tread, decoding it into the bitmap it is
+         * given rather than a new one
          */
         public class LoadBitmapTask extends AsyncTask<Asset, Void, Bitmap>{
 
+            /** The spare bitmap to decode into */
+            private final Bitmap mReuseBitmap;
+            /** The bundled icon to load if there's no other image, or 0 */
+            private final int mResourceId;
+            /** The hash of the image from the phone, or null */
+            private final String mHash;
+            /** Set in the background if the bundled icon had to be used */
+            private boolean mUsedResource;
+
+            LoadBitmapTask(Bitmap reuseBitmap, int resourceId, String hash) {
+                mReuseBitmap = reuseBitmap;
+                mResourceId = resourceId;
+                mHash = hash;
+            }
+
             /**
-             * create a scaled bitmap from the result received
+             * Swaps the decoded image in. Both swapping and drawing happen on the main thread, so
+             * a frame either draws the old image or the new one, never a missing or half decoded
+             * one.
              * @param bitmap
              */
             @Override
             protected void onPostExecute(Bitmap bitmap) {
+                mLoadBitmapTask = null;
                 //check to see if bitmap is not null
                 if (bitmap != null) {
-                    imageBitmap = Bitmap.createScaledBitmap(bitmap, 50, 50, false) ;
+                    Bitmap oldBitmap = imageBitmap;
+                    imageBitmap = bitmap;
+                    mImageResourceId = mUsedResource ? mResourceId : 0;
+                    mImageHash = mUsedResource ? null : mHash;
+                    if (bitmap == mReuseBitmap) {
+                        //the spare is being drawn now, so the old image becomes the spare,
+                        //if it can be decoded into
+                        if (isReusable(oldBitmap)) {
+                            mSpareImageBitmap = oldBitmap;
+                        } else {
+                            mSpareImageBitmap = null;
+                            if (oldBitmap != null) {
+                                oldBitmap.recycle();
+                            }
+                        }
+                    } else if (oldBitmap != null) {
+                        //the fallback made a new bitmap, so the spare is still free and the
+                        //old image isn't needed any more
+                        oldBitmap.recycle();
+                    }
+                    mLayerDirty = true;
+                    requestDataRedraw();
+                }
+
+                if (mHasPendingImage) {
+                    Asset asset = mPendingImageAsset;
+                    String hash = mPendingImageHash;
+                    mHasPendingImage = false;
+                    mPendingImageAsset = null;
+                    mPendingImageHash = null;
+                    loadImage(mPendingImageResourceId, asset, hash);
                 }
             }
 
             /**
-             * loads the bitmap from the data item in the background thread
+             * loads the bitmap in the background thread, from the first of these that it can:
+             * the asset from the phone (which is then kept in the IconCache), the IconCache copy
+             * of the image with the hash from the phone, or our own copy of the icon
              * @param params
              * @return
              */
             @Override
             protected Bitmap doInBackground(Asset... params) {
-                if (params.length != 0){
-                    //takes the first parameter which is an asset
-                    Asset asset = params[0];
-                    //check to see if the asset is null, if it is return null
-                    //in that case, no need to go through the whole process
-                    if (asset == null){
-                        Log.d(TAG, "doInBackground: Asset is null");
-                        return null;
-                    }
+                //takes the first parameter which is an asset, if the phone sent one
+                Asset asset = params.length != 0 ? params[0] : null;
+                byte[] image = null;
+                int length = 0;
 
+                if (asset != null) {
                     //reads the assets from the input stream
                     InputStream assetInputStream = Wearable.DataApi
                             .getFdForAsset(mGoogleApiClient, asset).await().getInputStream();
-                    //if asset is corrupted or null return null
-                    if (assetInputStream == null){
-                        Log.d(TAG, "doInBackground: No image found");
-                        return null;
+                    ByteArrayOutputStream bytes = readImage(assetInputStream);
+                    if (bytes != null) {
+                        image = bytes.toByteArray();
+                        length = bytes.size();
+                        if (mHash != null) {
+                            IconCache.put(WatchFaceService.this, mHash, image, length);
+                        }
                     }
-                    //return the bitmap if everything is OK
-                    return BitmapFactory.decodeStream(assetInputStream);
+                } else if (mHash != null) {
+                    //the phone has sent us this image before
+                    image = IconCache.get(WatchFaceService.this, mHash);
+                    length = image != null ? image.length : 0;
+                    IconCache.logStatistics();
                 }
-                //return null if no parameters were passed
-                return null;
+
+                if (image == null && mResourceId != 0) {
+                    //the icon is one of ours, so there's nothing to fetch from the phone
+                    ByteArrayOutputStream bytes =
+                            readImage(getResources().openRawResource(mResourceId));
+                    if (bytes != null) {
+                        image = bytes.toByteArray();
+                        length = bytes.size();
+                        mUsedResource = true;
+                    }
+                }
+
+                //if asset is corrupted or null return null
+                if (image == null) {
+                    Log.d(TAG, "doInBackground: No image found");
+                    return null;
+                }
+
+                //return the bitmap if everything is OK
+                return decodeIcon(image, length, mReuseBitmap);
             }
         }
     }